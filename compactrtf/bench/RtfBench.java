@@ -0,0 +1,274 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bench;
+
+import compactrtf.RtfLogger;
+import compactrtf.RtfStripper;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+/**
+ *
+ * @author jmontch
+ *
+ * This main class measures RtfStripper throughput on sources built in memory,
+ * and on testfile.rtf if present in execution directory.
+ * It is not part of the library, and uses only basic Java functionalities, so it runs without build tool.
+ * Each case is run some times to warm up, then timed, and throughput is written in MB/s,
+ * with bytes allocated by operation when the JVM measures thread allocation.
+ * Cases cover parsing hot paths: small sources with static functions, large file, command lookup,
+ * hexadecimal and Unicode transcoding, multi-byte code page, skipped groups and nested groups,
+ * a synthetic document of RtfCorpus mixing all of them, and a very long command word fed by small chunks,
+ * whose time must stay proportional to its length.
+ * Small sources are stripped several times by run, so each run parses about the same length.
+ * An argument runs only the cases whose name contains it.
+ */
+public class RtfBench {
+
+    private static final RtfLogger LOG=new RtfLogger("RtfBench");
+    private static final int WARMUP=5;
+    private static final int RUNS=10;
+    private static final long RUN_LENGTH=16*1024*1024; // source bytes parsed by a run
+    private static final Writer DISCARD=new DiscardWriter();
+
+    private static String filter="";
+
+    /**
+     * @param args the command line arguments, optional case name filter
+     */
+    public static void main(String[] args) {
+        LOG.setLevel(Level.INFO);
+        if (args.length>0) filter=args[0];
+        benchSnippets();
+        benchFile();
+        benchCommands();
+        benchHexa();
+        benchUnicode();
+        benchMultiByte();
+        benchSkippedGroup();
+        benchGroups();
+        benchCorpus();
+        benchFeedLongCommand();
+    }
+
+    /*
+    * a short mail body, stripped by static functions as a service does for each message
+    */
+    private static void benchSnippets(){
+        String snippet="{\\rtf1\\ansi\\ansicpg1252\\deff0{\\fonttbl{\\f0\\fswiss\\fcharset0 Arial;}}"
+                +"\\viewkind4\\uc1\\pard\\f0\\fs20 Hello Bob,\\par Thanks for the report, the r\\'e9sum\\'e9 is attached.\\par Regards\\par}";
+        byte[] bytes=snippet.getBytes(StandardCharsets.US_ASCII);
+        run("snippet string", bytes.length, () -> RtfStripper.stripLimitedSource(snippet, true));
+        run("snippet result", bytes.length, () -> RtfStripper.stripToResult(bytes, true));
+    }
+
+    /*
+    * the test file of the demo, a document written by a word processor
+    */
+    private static void benchFile(){
+        File file=new File("testfile.rtf");
+        if (!file.exists()){
+            LOG.info("file testfile.rtf not in execution directory, case skipped");
+            return;
+        }
+        try {
+            run("file", Files.readAllBytes(file.toPath()));
+        } catch (IOException ex) {
+            LOG.warning("file read IOException "+ex.getLocalizedMessage());
+        }
+    }
+
+    /*
+    * paragraph and character formatting as written before each word by Word,
+    * nearly only command words, known and unknown, measures command lookup
+    */
+    private static void benchCommands(){
+        StringBuilder sb=new StringBuilder("{\\rtf1\\ansi\\deff0 ");
+        for (int i=0;i<100000;i++){
+            sb.append("\\pard\\plain\\ltrpar\\s0\\ql\\li0\\ri0\\sa120\\widctlpar\\wrapdefault\\aspalpha\\faauto\\rin0\\lin0\\itap0 ");
+            sb.append("\\rtlch\\fcs1\\af0\\afs24\\alang1025\\ltrch\\fcs0\\fs24\\lang1036\\langfe1036\\cgrid\\langnp1036 w\\par\r\n");
+        }
+        sb.append("}");
+        run("commands", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+    * accented text of a western language, each accent as hexadecimal command
+    */
+    private static void benchHexa(){
+        StringBuilder sb=new StringBuilder("{\\rtf1\\ansi\\ansicpg1252\\deff0 ");
+        for (int i=0;i<300000;i++) sb.append("l\\'e9t\\'e9 \\'e0 la pla\\'e7a, c\\'f4t\\'e9 na\\'ef");
+        sb.append("}");
+        run("hexa", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+    * characters out of code page as Unicode commands with their fallback
+    */
+    private static void benchUnicode(){
+        StringBuilder sb=new StringBuilder("{\\rtf1\\ansi\\ansicpg1252\\uc1 ");
+        for (int i=0;i<300000;i++) sb.append("\\u8364?\\u20320?\\u22909? \\u1055?\\u1088?\\u1080? ok ");
+        sb.append("}");
+        run("unicode", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+    * Japanese text in code page 932, two hexadecimal commands by character decoded together
+    */
+    private static void benchMultiByte(){
+        StringBuilder sb=new StringBuilder("{\\rtf1\\ansi\\ansicpg932\\deff0 ");
+        for (int i=0;i<300000;i++) sb.append("\\'82\\'a0\\'82\\'a2\\'93\\'fa\\'96\\'7b\\'8c\\'ea ");
+        sb.append("}");
+        run("multi-byte", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+    * a document whose content is nearly all in a picture group, as Word documents with images
+    */
+    private static void benchSkippedGroup(){
+        StringBuilder sb=new StringBuilder("{\\rtf1\\ansi Some text {\\*\\shppict{\\pict\\pngblip\\picw100\\pich100 ");
+        int lineCount=200000;
+        for (int i=0;i<lineCount;i++){
+            sb.append("89504e470d0a1a0a0000000d4948445200000064000000640806000000");
+            sb.append("\r\n");
+        }
+        sb.append("}} more text\\par}");
+        run("skipped group", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+    * a document as written by Word, each word in a group with formatting commands,
+    * measures the cost of group and command handling (debug messages disabled)
+    */
+    private static void benchGroups(){
+        StringBuilder sb=new StringBuilder("{\\rtf1\\ansi\\ansicpg1252\\deff0 ");
+        int groupCount=500000;
+        for (int i=0;i<groupCount;i++){
+            sb.append("{\\rtlch\\fcs1 \\af0 \\ltrch\\fcs0 \\f0\\fs22\\lang1036 word ");
+            sb.append(i);
+            sb.append("}");
+            if ((i%20)==19) sb.append("\\par\r\n");
+        }
+        sb.append("}");
+        run("nested groups", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+    * a synthetic document with default RtfCorpus parameters, text, tables and pictures
+    */
+    private static void benchCorpus(){
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        RtfCorpus corpus=new RtfCorpus(1);
+        corpus.setSize(4*1024*1024);
+        try {
+            corpus.generate(out);
+        } catch (IOException ex) {
+            LOG.warning("corpus IOException "+ex.getLocalizedMessage());
+            return;
+        }
+        run("corpus", out.toByteArray());
+    }
+
+    /*
+    * a command word of 16 MB, as a hostile upload, fed by chunks of 8 KB:
+    * it is discarded as it comes, in constant memory, and not parsed again at each chunk
+    */
+    private static void benchFeedLongCommand(){
+        byte[] source=new byte[16*1024*1024];
+        Arrays.fill(source, (byte)'a');
+        byte[] start="{\\rtf1 text\\".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(start, 0, source, 0, start.length);
+        source[source.length-1]='}';
+        RtfStripper stripper=new RtfStripper();
+        int chunkSize=8192;
+        run("feed long command", source.length, () -> {
+            stripper.beginFeed(DISCARD, true);
+            for (int i=0;i<source.length;i+=chunkSize) stripper.feed(ByteBuffer.wrap(source, i, Math.min(chunkSize, source.length-i)));
+            stripper.finish();
+        });
+    }
+
+    /*
+    * strip a source with a reused stripper, text is discarded
+    */
+    private static void run(String name, byte[] source){
+        RtfStripper stripper=new RtfStripper();
+        run(name, source.length, () -> stripper.stripSource(source, DISCARD, true));
+    }
+
+    /*
+    * run an operation on a source, write throughput and allocation
+    */
+    private static void run(String name, int sourceLength, Runnable operation){
+        if (!name.contains(filter)) return;
+        long count=Math.max(1, RUN_LENGTH/sourceLength);
+        for (int i=0;i<WARMUP;i++) for (long j=0;j<count;j++) operation.run();
+        long allocated=allocatedBytes();
+        long start=System.nanoTime();
+        for (int i=0;i<RUNS;i++) for (long j=0;j<count;j++) operation.run();
+        long nanos=System.nanoTime()-start;
+        long end=allocatedBytes();
+        long measure=allocatedBytes()-end; // allocated by measure itself
+        double megaBytes=(double)sourceLength*count*RUNS/(1024*1024);
+        String allocation=(allocated<0)? "n/a": String.format("%.0f", (double)(end-allocated-measure)/(count*RUNS));
+        LOG.info(name+" source "+sourceLength+" bytes, "+String.format("%.1f", megaBytes*1e9/nanos)+" MB/s, "
+                +allocation+" bytes/op");
+    }
+
+    /*
+    * bytes allocated by current thread, -1 if JVM does not measure it
+    */
+    private static long allocatedBytes(){
+        ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean allocationBean=(com.sun.management.ThreadMXBean)bean;
+            if (allocationBean.isThreadAllocatedMemorySupported()&&allocationBean.isThreadAllocatedMemoryEnabled())
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /*
+    * Writer ignoring text, so that only stripping is measured
+    */
+    private static class DiscardWriter extends Writer{
+
+        @Override
+        public void write(int c){
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len){
+        }
+
+        @Override
+        public void flush(){
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
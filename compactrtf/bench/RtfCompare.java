@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bench;
+
+import compactrtf.RtfLogger;
+import compactrtf.RtfStripper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.rtf.RTFEditorKit;
+
+/**
+ *
+ * @author jmontch
+ *
+ * This main class compares RtfStripper with RTFEditorKit of Java standard library on the same corpus:
+ * testfile.rtf and characters.rtf if present in execution directory, files given as arguments,
+ * and synthetic documents of RtfCorpus (text, tables, pictures, multi-byte code page).
+ * It is not part of the library, and uses only basic Java functionalities, so it runs without build tool.
+ * Both parsers read the source bytes and return the text as a String.
+ * For each parser, it writes throughput in MB/s, bytes allocated by operation when the JVM
+ * measures thread allocation, and peak heap used above heap before the runs.
+ * Texts are then compared by lines, ignoring line end characters, trailing spaces and empty lines:
+ * count of lines, count of lines found in both texts, and first different line.
+ */
+public class RtfCompare {
+
+    private static final RtfLogger LOG=new RtfLogger("RtfCompare");
+    private static final int WARMUP=2;
+    private static final int RUNS=5;
+    private static final long CORPUS_SIZE=2*1024*1024;
+    private static final int EXCERPT_LENGTH=60;
+
+    /**
+     * @param args the command line arguments, optional Rtf files added to corpus
+     */
+    public static void main(String[] args) {
+        LOG.setLevel(Level.INFO);
+        List<String> names=new ArrayList<>();
+        List<byte[]> sources=new ArrayList<>();
+        List<String> files=new ArrayList<>();
+        files.add("testfile.rtf");
+        files.add("characters.rtf");
+        for (String arg:args) files.add(arg);
+        for (String name:files){
+            File file=new File(name);
+            if (!file.exists()){
+                LOG.info("file "+name+" not found, skipped");
+                continue;
+            }
+            try {
+                sources.add(Files.readAllBytes(file.toPath()));
+                names.add(name);
+            } catch (IOException ex) {
+                LOG.warning("file "+name+" read IOException "+ex.getLocalizedMessage());
+            }
+        }
+        RtfCorpus corpus=new RtfCorpus(1);
+        corpus.setBinaryRatio(0);
+        corpus.setTableDensity(0);
+        addCorpus(names, sources, "corpus text", corpus);
+        corpus=new RtfCorpus(2);
+        corpus.setTableDensity(0.8);
+        addCorpus(names, sources, "corpus tables", corpus);
+        corpus=new RtfCorpus(3);
+        corpus.setBinaryRatio(0.8);
+        addCorpus(names, sources, "corpus pictures", corpus);
+        corpus=new RtfCorpus(4);
+        corpus.setCodePage(932);
+        corpus.setHexaDensity(0.5);
+        addCorpus(names, sources, "corpus 932", corpus);
+        for (int i=0;i<names.size();i++) compare(names.get(i), sources.get(i));
+    }
+
+    private static void addCorpus(List<String> names, List<byte[]> sources, String name, RtfCorpus corpus){
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        corpus.setSize(CORPUS_SIZE);
+        try {
+            corpus.generate(out);
+        } catch (IOException ex) {
+            LOG.warning(name+" IOException "+ex.getLocalizedMessage());
+            return;
+        }
+        names.add(name);
+        sources.add(out.toByteArray());
+    }
+
+    /*
+    * measure both parsers on a source and compare their texts
+    */
+    private static void compare(String name, byte[] source){
+        String kitText;
+        try {
+            kitText=kitStrip(source);
+        } catch (IOException|BadLocationException|RuntimeException ex) {
+            LOG.warning(name+" RTFEditorKit failed "+ex);
+            kitText=null;
+        }
+        String strippedText=RtfStripper.stripToResult(source, true).getText();
+        run(name, "RtfStripper", source.length, () -> RtfStripper.stripToResult(source, true));
+        if (kitText!=null){
+            run(name, "RTFEditorKit", source.length, () -> kitStrip(source));
+            diff(name, strippedText, kitText);
+        }
+    }
+
+    /*
+    * text of a source as given by RTFEditorKit, in a new document
+    */
+    private static String kitStrip(byte[] source) throws IOException, BadLocationException{
+        RTFEditorKit kit=new RTFEditorKit();
+        Document document=kit.createDefaultDocument();
+        kit.read(new ByteArrayInputStream(source), document, 0);
+        return document.getText(0, document.getLength());
+    }
+
+    /*
+    * run an operation on a source, write throughput, allocation and peak heap
+    */
+    private static void run(String name, String parser, int sourceLength, Operation operation){
+        try {
+            for (int i=0;i<WARMUP;i++) operation.run();
+            System.gc();
+            long heap=heapUsed();
+            resetPeakHeap();
+            long allocated=allocatedBytes();
+            long start=System.nanoTime();
+            for (int i=0;i<RUNS;i++) operation.run();
+            long nanos=System.nanoTime()-start;
+            long end=allocatedBytes();
+            long measure=allocatedBytes()-end; // allocated by measure itself
+            double megaBytes=(double)sourceLength*RUNS/(1024*1024);
+            String allocation=(allocated<0)? "n/a": String.format("%.0f", (double)(end-allocated-measure)/RUNS);
+            LOG.info(name+" "+parser+" source "+sourceLength+" bytes, "+String.format("%.1f", megaBytes*1e9/nanos)+" MB/s, "
+                    +allocation+" bytes/op, peak heap +"+String.format("%.1f", (double)(peakHeap()-heap)/(1024*1024))+" MB");
+        } catch (Exception ex) {
+            LOG.warning(name+" "+parser+" failed "+ex);
+        }
+    }
+
+    /*
+    * compare texts by lines, write counts and first difference
+    */
+    private static void diff(String name, String strippedText, String kitText){
+        List<String> stripped=lines(strippedText);
+        List<String> kit=lines(kitText);
+        if (stripped.equals(kit)){
+            LOG.info(name+" texts equal, "+stripped.size()+" lines");
+            return;
+        }
+        Map<String,Integer> counts=new HashMap<>();
+        for (String line:kit) counts.merge(line, 1, Integer::sum);
+        int common=0;
+        for (String line:stripped){
+            Integer count=counts.get(line);
+            if ((count!=null)&&(count>0)){
+                common++;
+                counts.put(line, count-1);
+            }
+        }
+        int first=0;
+        while ((first<stripped.size())&&(first<kit.size())&&stripped.get(first).equals(kit.get(first))) first++;
+        LOG.info(name+" texts differ, RtfStripper "+stripped.size()+" lines, RTFEditorKit "+kit.size()+" lines, "
+                +common+" lines in both, first difference line "+(first+1)+"\n  RtfStripper  : "+excerpt(stripped, first)
+                +"\n  RTFEditorKit : "+excerpt(kit, first));
+    }
+
+    /*
+    * not empty lines without trailing spaces
+    */
+    private static List<String> lines(String text){
+        List<String> lines=new ArrayList<>();
+        for (String line:text.split("\r?\n|\r")){
+            int end=line.length();
+            while ((end>0)&&Character.isWhitespace(line.charAt(end-1))) end--;
+            if (end>0) lines.add(line.substring(0, end));
+        }
+        return lines;
+    }
+
+    private static String excerpt(List<String> lines, int index){
+        if (index>=lines.size()) return "(end of text)";
+        String line=lines.get(index);
+        return (line.length()>EXCERPT_LENGTH)? line.substring(0, EXCERPT_LENGTH)+"...": line;
+    }
+
+    /*
+    * bytes allocated by current thread, -1 if JVM does not measure it
+    */
+    private static long allocatedBytes(){
+        ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean allocationBean=(com.sun.management.ThreadMXBean)bean;
+            if (allocationBean.isThreadAllocatedMemorySupported()&&allocationBean.isThreadAllocatedMemoryEnabled())
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long heapUsed(){
+        long used=0;
+        for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType()==MemoryType.HEAP) used+=pool.getUsage().getUsed();
+        return used;
+    }
+
+    private static void resetPeakHeap(){
+        for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType()==MemoryType.HEAP) pool.resetPeakUsage();
+    }
+
+    /*
+    * sum of pool peaks, pools may peak at different times so it is an upper bound
+    */
+    private static long peakHeap(){
+        long peak=0;
+        for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType()==MemoryType.HEAP) peak+=pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    /*
+    * a parser run, which may throw the parser exceptions
+    */
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
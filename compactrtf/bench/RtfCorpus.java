@@ -0,0 +1,305 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bench;
+
+import compactrtf.RtfLogger;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.logging.Level;
+
+/**
+ *
+ * @author jmontch
+ *
+ * This class generates synthetic Rtf documents for benchmarks and stress tests.
+ * It is not part of the library. A document is defined by a seed and some parameters:
+ * size, nesting depth of formatting groups, part of pictures and embedded objects,
+ * density of hexadecimal and Unicode characters, code page and density of table rows.
+ * The same seed and parameters always give the same document.
+ * Document is written while generated, so its size is not limited by memory.
+ *
+ * As main class, it writes a document in a file: RtfCorpus file [size in MB] [seed] [code page]
+ */
+public class RtfCorpus {
+
+    private static final RtfLogger LOG=new RtfLogger("RtfCorpus");
+    private static final String[] WORDS={"the", "report", "of", "quarterly", "results", "shows", "a", "growth",
+        "in", "all", "regions", "and", "customer", "satisfaction", "remains", "high", "for", "our", "products",
+        "meeting", "planned", "next", "week", "with", "team", "budget", "review", "project", "delivery", "date"};
+    private static final int HEX_LINE=128; // hexadecimal digits by line of picture data
+
+    private final Random random;
+    private long size=16*1024*1024;
+    private int maxDepth=4;
+    private double binaryRatio=0.3;
+    private double hexaDensity=0.05;
+    private double unicodeDensity=0.01;
+    private int codePage=1252;
+    private double tableDensity=0.1;
+
+    private OutputStream out;
+    private long written;
+    private long binaryWritten;
+
+    /**
+     * create a generator, default parameters give a document of 16 MB with 30% of pictures
+     * @param seed seed of random choices
+     */
+    public RtfCorpus(long seed){
+        random=new Random(seed);
+    }
+
+    /**
+     * set document size, document ends with the paragraph or group reaching this size
+     * @param size size in bytes
+     */
+    public void setSize(long size){
+        this.size=size;
+    }
+
+    /**
+     * set maximum nesting depth of formatting groups in paragraphs
+     * @param maxDepth maximum depth, 0 for no formatting group
+     */
+    public void setMaxDepth(int maxDepth){
+        this.maxDepth=maxDepth;
+    }
+
+    /**
+     * set the part of document in pictures and embedded objects (hexadecimal data in skipped groups)
+     * @param binaryRatio part from 0 to 1
+     */
+    public void setBinaryRatio(double binaryRatio){
+        this.binaryRatio=binaryRatio;
+    }
+
+    /**
+     * set the part of text characters written as hexadecimal commands, in the code page
+     * @param hexaDensity part from 0 to 1
+     */
+    public void setHexaDensity(double hexaDensity){
+        this.hexaDensity=hexaDensity;
+    }
+
+    /**
+     * set the part of text characters written as Unicode commands
+     * @param unicodeDensity part from 0 to 1
+     */
+    public void setUnicodeDensity(double unicodeDensity){
+        this.unicodeDensity=unicodeDensity;
+    }
+
+    /**
+     * set the document code page, 1250 to 1253 or multi-byte 932 and 936
+     * @param codePage code page number
+     */
+    public void setCodePage(int codePage){
+        this.codePage=codePage;
+    }
+
+    /**
+     * set the part of paragraphs written as table rows
+     * @param tableDensity part from 0 to 1
+     */
+    public void setTableDensity(double tableDensity){
+        this.tableDensity=tableDensity;
+    }
+
+    /**
+     * generate a document, a second call generates another document with next random choices
+     * @param out stream receiving the document, not closed
+     * @return document size in bytes
+     * @throws IOException if out cannot be written
+     */
+    public long generate(OutputStream out) throws IOException{
+        this.out=(out instanceof BufferedOutputStream)? out: new BufferedOutputStream(out, 65536);
+        written=0;
+        binaryWritten=0;
+        writeHeader();
+        while (written<size){
+            if (binaryWritten<binaryRatio*written) writeBinary();
+            else if (random.nextDouble()<tableDensity) writeRow();
+            else writeParagraph();
+        }
+        write("}\r\n");
+        this.out.flush();
+        this.out=null;
+        return written;
+    }
+
+    private void writeHeader() throws IOException{
+        int charset=fontCharset();
+        write("{\\rtf1\\ansi\\ansicpg"+codePage+"\\deff0\\deflang1033");
+        write("{\\fonttbl{\\f0\\froman\\fprq2\\fcharset"+charset+" Times New Roman;}{\\f1\\fswiss\\fprq2\\fcharset"+charset
+                +" Arial;}{\\f2\\fnil\\fcharset2 Symbol;}}\r\n");
+        write("{\\colortbl;\\red0\\green0\\blue0;\\red0\\green0\\blue255;\\red255\\green0\\blue0;}\r\n");
+        write("{\\stylesheet{\\ql \\li0\\ri0\\widctlpar\\wrapdefault\\aspalpha\\fs24\\lang1033 \\snext0 Normal;}"
+                +"{\\s1\\ql \\sb240\\sa60\\keepn\\b\\fs32 \\sbasedon0 \\snext0 heading 1;}}\r\n");
+        write("{\\*\\generator RtfCorpus;}{\\info{\\title Synthetic document}{\\author RtfCorpus}"
+                +"{\\creatim\\yr2024\\mo5\\dy23\\hr18\\min14}{\\nofwords"+(size/8)+"}}\r\n");
+        write("\\paperw11906\\paperh16838\\margl1417\\margr1417\\margt1417\\margb1417\\viewkind4\\uc1\r\n");
+    }
+
+    /*
+    * a paragraph of words, some in nested formatting groups
+    */
+    private void writeParagraph() throws IOException{
+        write("\\pard\\plain \\ltrpar\\ql \\li0\\ri0\\sa120\\widctlpar\\wrapdefault\\f0\\fs24\\lang1033 ");
+        int wordCount=5+random.nextInt(60);
+        for (int i=0;i<wordCount;i++){
+            int depth=(maxDepth==0)? 0: random.nextInt(maxDepth+1);
+            for (int d=0;d<depth;d++) write(random.nextBoolean()? "{\\b ": (random.nextBoolean()? "{\\i ": "{\\cf2\\f1 "));
+            writeWord();
+            for (int d=0;d<depth;d++) write("}");
+            write(" ");
+        }
+        write("\\par\r\n");
+    }
+
+    /*
+    * a table row of 2 to 6 cells
+    */
+    private void writeRow() throws IOException{
+        int cellCount=2+random.nextInt(5);
+        write("\\trowd \\irow0\\irowband0\\ltrrow\\ts11\\trgaph108\\trleft-108");
+        for (int i=1;i<=cellCount;i++) write("\\clvertalt\\clbrdrt\\brdrs\\brdrw10 \\cltxlrtb\\clftsWidth3\\cellx"+(i*9000/cellCount));
+        write("\r\n\\pard \\ltrpar\\ql \\intbl\\wrapdefault ");
+        for (int i=0;i<cellCount;i++){
+            int wordCount=1+random.nextInt(4);
+            for (int j=0;j<wordCount;j++){
+                writeWord();
+                write(" ");
+            }
+            write("\\cell ");
+        }
+        write("\\row\r\n");
+    }
+
+    /*
+    * a picture or an embedded object, hexadecimal data in a no text destination
+    */
+    private void writeBinary() throws IOException{
+        long start=written;
+        int lineCount=32+random.nextInt(2048);
+        if (random.nextInt(4)==0) write("{\\object\\objemb\\objw2000\\objh1000{\\*\\objclass Excel.Sheet.8}{\\*\\objdata 01050000020000000b000000\r\n");
+        else write("{\\*\\shppict{\\pict\\picscalex100\\picscaley100\\picw"+(100+random.nextInt(2000))+"\\pich"
+                +(100+random.nextInt(2000))+"\\pngblip\r\n");
+        for (int i=0;i<lineCount;i++){
+            for (int j=0;j<HEX_LINE;j++) out.write(Character.forDigit(random.nextInt(16), 16));
+            written+=HEX_LINE;
+            write("\r\n");
+        }
+        write("}}\r\n");
+        binaryWritten+=written-start;
+    }
+
+    /*
+    * a word, each character in ASCII, hexadecimal command or Unicode command
+    */
+    private void writeWord() throws IOException{
+        String word=WORDS[random.nextInt(WORDS.length)];
+        for (int i=0;i<word.length();i++){
+            double choice=random.nextDouble();
+            if (choice<hexaDensity) writeHexa();
+            else if (choice<hexaDensity+unicodeDensity){
+                int code=(random.nextBoolean()? 0x4E00+random.nextInt(0x5000): 0x0410+random.nextInt(0x40));
+                write("\\u"+((code>0x7FFF)? code-0x10000: code)+"?");
+            }
+            else {
+                out.write(word.charAt(i));
+                written++;
+            }
+        }
+    }
+
+    /*
+    * a character of code page as hexadecimal commands, two for multi-byte code pages
+    */
+    private void writeHexa() throws IOException{
+        switch (codePage){
+            case 932: // Shift JIS hiragana
+                writeByte(0x82);
+                writeByte(0x9F+random.nextInt(0x53));
+                break;
+            case 936: // GBK first level Chinese
+                writeByte(0xB0+random.nextInt(0x28));
+                writeByte(0xA1+random.nextInt(0x5E));
+                break;
+            case 1253: // Greek letters
+                writeByte(0xC1+random.nextInt(0x11));
+                break;
+            default: // accented Latin letters, Cyrillic letters in 1251
+                writeByte(0xC0+random.nextInt(0x40));
+                break;
+        }
+    }
+
+    private void writeByte(int b) throws IOException{
+        write("\\'");
+        out.write(Character.forDigit(b>>4, 16));
+        out.write(Character.forDigit(b&0xF, 16));
+        written+=2;
+    }
+
+    private int fontCharset(){
+        switch (codePage){
+            case 932:
+                return 128;
+            case 936:
+                return 134;
+            case 1250:
+                return 238;
+            case 1251:
+                return 204;
+            case 1253:
+                return 161;
+            default:
+                return 0;
+        }
+    }
+
+    /*
+    * write ASCII text
+    */
+    private void write(String s) throws IOException{
+        for (int i=0;i<s.length();i++) out.write(s.charAt(i));
+        written+=s.length();
+    }
+
+    /**
+     * @param args file [size in MB] [seed] [code page]
+     * @throws IOException if file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        LOG.setLevel(Level.INFO);
+        if (args.length==0){
+            LOG.info("usage: RtfCorpus file [size in MB] [seed] [code page]");
+            return;
+        }
+        RtfCorpus corpus=new RtfCorpus((args.length>2)? Long.parseLong(args[2]): 1);
+        if (args.length>1) corpus.setSize(Long.parseLong(args[1])*1024*1024);
+        if (args.length>3) corpus.setCodePage(Integer.parseInt(args[3]));
+        long start=System.nanoTime();
+        long length;
+        try (OutputStream out=new FileOutputStream(args[0])){
+            length=corpus.generate(out);
+        }
+        LOG.info(args[0]+" written "+length+" bytes in "+(System.nanoTime()-start)/1000000+" ms");
+    }
+}
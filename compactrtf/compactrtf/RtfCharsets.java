@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class keeps for the process the charsets met in Rtf sources.
+ * Each charset receives a small number, its id, and a table of 256 characters
+ * built once giving the character of each byte value.
+ * So a hexadecimal command is translated by a single array access.
+ * Id NO_CHARSET is used when no charset is known, byte value is then taken as character.
+ * Multi-byte charsets (Asian code pages 932, 936, 949, 950...) are marked,
+ * their bytes cannot be translated alone and have to be decoded by sequences.
+ * Lookups of charsets already met take no lock, as every document calls them:
+ * arrays are replaced by new copies when a charset is added, and its id is published after them.
+ */
+final class RtfCharsets {
+
+    static final int NO_CHARSET=0;
+
+    private static final Map<Charset,Integer> IDS=new ConcurrentHashMap<>();
+    private static final Map<Integer,Integer> CODE_PAGE_IDS=new ConcurrentHashMap<>();
+    private static volatile Charset[] charsets={null};
+    private static volatile char[][] tables={buildTable(null)};
+    private static volatile boolean[] multiBytes={false};
+
+    private RtfCharsets(){
+    }
+
+    /**
+     * furnish the id of a charset, building its table at first call
+     * @param charset the charset, null for NO_CHARSET
+     * @return charset id
+     */
+    static int getId(Charset charset){
+        if (charset==null) return NO_CHARSET;
+        Integer id=IDS.get(charset);
+        return (id!=null)? id: addCharset(charset);
+    }
+
+    /*
+    * new charset, only adding is synchronized, id is put in map after arrays so a reader finding it sees them
+    */
+    private static synchronized int addCharset(Charset charset){
+        Integer id=IDS.get(charset);
+        if (id!=null) return id; // added by another thread
+        int newId=tables.length;
+        char[][] newTables=new char[newId+1][];
+        System.arraycopy(tables, 0, newTables, 0, newId);
+        newTables[newId]=buildTable(charset);
+        Charset[] newCharsets=new Charset[newId+1];
+        System.arraycopy(charsets, 0, newCharsets, 0, newId);
+        newCharsets[newId]=charset;
+        boolean[] newMultiBytes=new boolean[newId+1];
+        System.arraycopy(multiBytes, 0, newMultiBytes, 0, newId);
+        newMultiBytes[newId]=isMultiByte(charset);
+        charsets=newCharsets;
+        multiBytes=newMultiBytes;
+        tables=newTables;
+        IDS.put(charset, newId);
+        return newId;
+    }
+
+    /**
+     * furnish the id of a code page charset, resolved once for the process
+     * @param codePage code page number
+     * @return charset id, or -1 if code page is not implemented
+     */
+    static int getIdFromCodePage(int codePage){
+        Integer id=CODE_PAGE_IDS.get(codePage);
+        return (id!=null)? id: addCodePage(codePage);
+    }
+
+    private static synchronized int addCodePage(int codePage){
+        Integer id=CODE_PAGE_IDS.get(codePage);
+        if (id==null){
+            Charset charset=RtfCommand.getCharsetFromCodePage(codePage);
+            id=(charset==null)? -1: getId(charset);
+            CODE_PAGE_IDS.put(codePage, id);
+        }
+        return id;
+    }
+
+    /**
+     * furnish the translation table of a charset
+     * @param id charset id from getId
+     * @return table of 256 characters indexed by byte value
+     */
+    static char[] getTable(int id){
+        return tables[id];
+    }
+
+    /**
+     * furnish the charset of an id
+     * @param id charset id from getId
+     * @return the charset, null for NO_CHARSET
+     */
+    static Charset getCharset(int id){
+        return charsets[id];
+    }
+
+    /**
+     * indicate if a charset needs several bytes for some characters
+     * @param id charset id from getId
+     * @return true for multi-byte charset
+     */
+    static boolean isMultiByte(int id){
+        return multiBytes[id];
+    }
+
+    private static boolean isMultiByte(Charset charset){
+        try {
+            return charset.newEncoder().maxBytesPerChar()>1;
+        } catch (UnsupportedOperationException ex){ // decode only charset
+            return false;
+        }
+    }
+
+    /*
+    * translate each byte alone, as a Rtf hexadecimal command gives a single byte
+    */
+    private static char[] buildTable(Charset charset){
+        char[] table=new char[256];
+        byte[] bytes=new byte[1];
+        for (int i=0;i<256;i++){
+            if (charset==null) table[i]=(char)i;
+            else {
+                bytes[0]=(byte)i;
+                table[i]=new String(bytes,0,1,charset).charAt(0);
+            }
+        }
+        return table;
+    }
+}
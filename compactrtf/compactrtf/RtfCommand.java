@@ -25,14 +25,18 @@ import java.util.Map;
  * @author Jmontch
  * 
  * This class allows interpreting commands found in Rtf source
- * Commands are classed in six types :
+ * Commands are classed in nine types :
  * - INSERTION command to insert a specified character in out text
  * - UNICODE command to insert a character whose unicode code follows the command
+ * - UNICODE_SKIP giving the count of fallback characters which follow a UNICODE command
  * - TEXT_DESTINATION indicating that text after this command is to insert in out text
  * - NO_TEXT_DESTINATION indicating that text which follows is not to insert
  * - CHARSET defining a standard character set, with selection from 1 to 4
  * - CHARSET_FROM define a character set with name "Cpxxxx", where xxxx is a number that follows the command
- * The class construct a Map (command text, code) for all commands.
+ * - BINARY indicating that the number of bytes that follows the command are raw binary data
+ * - FONT for font table and font selection, giving the charset of each font
+ * The class construct a Map (command text, code) for all commands,
+ * and from it a table allowing parser to get code from read characters without allocation.
  * Code is the character to insert, unicode code, for INSERT command,
  * and  codes (>10000 hexa)indicating type for other (and with index for CHARSET).
  * For destination commands, all known commands are retained.
@@ -50,50 +54,87 @@ class RtfCommand {
     static final int INSERTION_CHAR=FIRST_TYPE+0x40;
     static final int CHARSET=FIRST_TYPE+0x50;
     static final int CHARSET_FROM=FIRST_TYPE+0x60;
+    static final int BINARY=FIRST_TYPE+0x70;
+    static final int FONT=FIRST_TYPE+0x80;
+    static final int UNICODE_SKIP=FIRST_TYPE+0x90;
+    static final int INFO=FIRST_TYPE+0xA0;
     
     /**
-     * Return an instance of the object
-     * @param keyword name of the command
-     * @return the object or null if keyword is unknown
+     * FONT type commands
      */
-    static RtfCommand getInstance(String keyword){
-        Integer code=MAP.get(keyword);
-        if (code==null) return null;
-        return new RtfCommand(code);
-    }
+    static final int FONT_TABLE=FONT+1;
+    static final int FONT_SELECT=FONT+2;
+    static final int FONT_CHARSET=FONT+3;
+    static final int FONT_CODEPAGE=FONT+4;
+    static final int FONT_DEFAULT=FONT+5;
+    
+    /**
+     * INFO type commands, document information read by header probe,
+     * destinations up to INFO_CREATIM are else skipped as no text destinations
+     */
+    static final int INFO_GROUP=INFO+1;
+    static final int INFO_TITLE=INFO+2;
+    static final int INFO_SUBJECT=INFO+3;
+    static final int INFO_AUTHOR=INFO+4;
+    static final int INFO_GENERATOR=INFO+5;
+    static final int INFO_CREATIM=INFO+6;
+    static final int INFO_YEAR=INFO+7;
+    static final int INFO_MONTH=INFO+8;
+    static final int INFO_DAY=INFO+9;
+    static final int INFO_HOUR=INFO+10;
+    static final int INFO_MINUTE=INFO+11;
+    static final int INFO_WORDS=INFO+12;
+    static final int INFO_LANGUAGE=INFO+13;
     
-    private final int code; 
+    /**
+     * code returned by getCode for an unknown command
+     */
+    static final int UNKNOWN=-1;
     
-    private RtfCommand(int code){
-        this.code=code;
+    /**
+     * Return the code of a command directly from the characters read,
+     * without any object allocation, to be used on parsing hot path
+     * @param chars array containing command name from index 0
+     * @param length command name length
+     * @return the command code or UNKNOWN if command is unknown
+     */
+    static int getCode(char[] chars,int length){
+        int index=hash(chars,length)&TABLE_MASK;
+        while (true){
+            char[] key=TABLE_KEYS[index];
+            if (key==null) return UNKNOWN;
+            if (key.length==length){
+                int i=0;
+                while ((i<length)&&(key[i]==chars[i])) i++;
+                if (i==length) return TABLE_CODES[index];
+            }
+            index=(index+1)&TABLE_MASK;
+        }
+    }
+    
+    private RtfCommand(){
     }
     
     /**
-     * furnish the command type
+     * furnish the command type of a command code
+     * @param code command code from getCode
      * @return command type
      */
-    int getCommandType(){
+    static int getCommandType(int code){
         if (code<FIRST_TYPE) return INSERTION_CHAR;
         return code&0x1FFF0;//-FIRST_TYPE;
     }
     
     /**
-     * furnish the character to insert for an insertion command
+     * furnish the character to insert for an insertion command code
+     * @param code command code from getCode
      * @return character to insert
      */
-    char getInsertionChar(){
+    static char getInsertionChar(int code){
         if ((code>=0)&&(code<FIRST_TYPE)) return (char)code;
         return '\uFFFF';
     }
     
-    /**
-     * For a CHARSET type command, furnishes corresponding Charset
-     * @return the Charset
-     */
-    Charset getCharset(){
-        return getCharset(getCharsetName());
-    }
-    
     /**
      * For a CHARSET_FROM type command, furnishes windows numbered Charset
      * @param number to insert in charset name after windows-
@@ -103,16 +144,69 @@ class RtfCommand {
         return getCharset("Cp"+number);
     }
     
+    /**
+     * Furnishes charset of a code page number, from ansicpg or cpg commands,
+     * Microsoft variants are preferred for Asian code pages
+     * @param codePage code page number
+     * @return the Charset or null if not implemented
+     */
+    static Charset getCharsetFromCodePage(int codePage){
+        switch (codePage){
+            case 874:
+            case 932:
+            case 936:
+            case 949:
+            case 950:
+                return getCharset("MS"+codePage);
+            case 1361:
+                return getCharset("x-Johab");
+            case 10000:
+                return getCharset("MacRoman");
+            default:
+                return getCharsetFrom(Integer.toString(codePage));
+        }
+    }
+    
+    /**
+     * Furnishes the code page of a font charset number given by fcharset command
+     * @param fontCharset fcharset parameter
+     * @return code page number, or -1 if font uses document charset (default and symbol fonts)
+     */
+    static int getCodePageFromFontCharset(int fontCharset){
+        switch (fontCharset){
+            case 0: return 1252; // ANSI
+            case 77: return 10000; // Mac
+            case 128: return 932; // Shift JIS
+            case 129: return 949; // Hangul
+            case 130: return 1361; // Johab
+            case 134: return 936; // GB2312
+            case 136: return 950; // Big5
+            case 161: return 1253; // Greek
+            case 162: return 1254; // Turkish
+            case 163: return 1258; // Vietnamese
+            case 177: return 1255; // Hebrew
+            case 178: return 1256; // Arabic
+            case 186: return 1257; // Baltic
+            case 204: return 1251; // Russian
+            case 222: return 874; // Thai
+            case 238: return 1250; // Eastern European
+            case 254: return 437; // PC 437
+            case 255: return 850; // OEM
+            default: return -1;
+        }
+    }
+    
     private static final int CHARSET_ANSI=1;
     private static final int CHARSET_MAC=2;
     private static final int CHARSET_PC=3;
     private static final int CHARSET_PCA=4;
     
     /**
-     * for CHARSET type command,furnishes Charset name
+     * for CHARSET type command code,furnishes Charset name
+     * @param code command code from getCode
      * @return Charset name
      */
-    String getCharsetName(){
+    static String getCharsetName(int code){
         switch (code&0xF){
              case CHARSET_ANSI: // ansi
                 return "iso-8859-1"; // ou Cp1852 ?
@@ -142,13 +236,27 @@ class RtfCommand {
         return null;
     }
     
-    static boolean isUnicodeCommand(String command){
-        return "u".equals(command);
+    /*
+    * same hash for String keys when building table and char arrays when reading
+    */
+    private static int hash(char[] chars,int length){
+        int h=0;
+        for (int i=0;i<length;i++) h=31*h+chars[i];
+        return h^(h>>>16);
     }
     
     
     private static final Map<String,Integer> MAP=new HashMap<>();
     
+    /*
+    * open addressing table built from MAP, keys are command names as char arrays
+    * size is a power of two at least four times the command count, to keep probes short
+    */
+    private static final int TABLE_SIZE;
+    private static final int TABLE_MASK;
+    private static final char[][] TABLE_KEYS;
+    private static final int[] TABLE_CODES;
+    
     static{
          // SUBSTITUTION
         MAP.put("emdash",(int) '\u2014');//emdash("emdash", CommandType.Symbol), case emdash:processCharacter('\u2014');
@@ -173,12 +281,29 @@ class RtfCommand {
         MAP.put("\n",(int)'\n');
         // UNICODE
         MAP.put("u" ,UNICODE_COMMAND);//u("u", CommandType.Value),
+        MAP.put("uc" ,UNICODE_SKIP);
         // CHARSETS
         MAP.put("ansicpg", CHARSET_FROM);
         MAP.put("ansi", CHARSET+CHARSET_ANSI);
         MAP.put("mac", CHARSET+CHARSET_MAC);
         MAP.put("pc", CHARSET+CHARSET_PC);
         MAP.put("pca", CHARSET+CHARSET_PCA);
+        // BINARY DATA
+        MAP.put("bin", BINARY);
+        // FONTS
+        MAP.put("fonttbl", FONT_TABLE);
+        MAP.put("f", FONT_SELECT);
+        MAP.put("fcharset", FONT_CHARSET);
+        MAP.put("cpg", FONT_CODEPAGE);
+        MAP.put("deff", FONT_DEFAULT);
+        // DOCUMENT INFORMATION
+        MAP.put("yr", INFO_YEAR);
+        MAP.put("mo", INFO_MONTH);
+        MAP.put("dy", INFO_DAY);
+        MAP.put("hr", INFO_HOUR);
+        MAP.put("min", INFO_MINUTE);
+        MAP.put("nofwords", INFO_WORDS);
+        MAP.put("deflang", INFO_LANGUAGE);
         // TEXT DESTINATION        
         MAP.put( "rtf",TEXT_DEST);//rtf("rtf", CommandType.Destination),
         MAP.put("fldrslt" ,TEXT_DEST);//fldrslt("fldrslt", CommandType.Destination),
@@ -197,7 +322,7 @@ class RtfCommand {
         MAP.put("atntime" ,NO_TEXT_DEST);//atntime("atntime", CommandType.Destination),
         MAP.put("atrfend" ,NO_TEXT_DEST);//atrfend("atrfend", CommandType.Destination),
         MAP.put( "atrfstart",NO_TEXT_DEST);//atrfstart("atrfstart", CommandType.Destination),
-        MAP.put("author" ,NO_TEXT_DEST);//author("author", CommandType.Destination),
+        MAP.put("author" ,INFO_AUTHOR);//author("author", CommandType.Destination),
         MAP.put("background" ,NO_TEXT_DEST);//background("background", CommandType.Destination),
         MAP.put("bkmkend" ,NO_TEXT_DEST);//bkmkend("bkmkend", CommandType.Destination),
         MAP.put("bkmkstart" ,NO_TEXT_DEST);//bkmkstart("bkmkstart", CommandType.Destination),   
@@ -208,7 +333,7 @@ class RtfCommand {
         MAP.put( "colortbl",NO_TEXT_DEST);//colortbl("colortbl", CommandType.Destination),
         MAP.put( "comment",NO_TEXT_DEST);//comment("comment", CommandType.Destination),
         MAP.put("company" ,NO_TEXT_DEST);//company("company", CommandType.Destination),
-        MAP.put("creatim" ,NO_TEXT_DEST);//creatim("creatim", CommandType.Destination),
+        MAP.put("creatim" ,INFO_CREATIM);//creatim("creatim", CommandType.Destination),
         MAP.put( "datafield",NO_TEXT_DEST);//datafield("datafield", CommandType.Destination),
         MAP.put( "datastore",NO_TEXT_DEST);//datastore("datastore", CommandType.Destination),
         MAP.put("defchp" ,NO_TEXT_DEST);//defchp("defchp", CommandType.Destination),
@@ -238,7 +363,6 @@ class RtfCommand {
         MAP.put("fname" ,NO_TEXT_DEST);//fname("fname", CommandType.Destination),
         MAP.put("fontemb" ,NO_TEXT_DEST);//fontemb("fontemb", CommandType.Destination),   
         MAP.put( "fontfile",NO_TEXT_DEST);//fontfile("fontfile", CommandType.Destination),
-        MAP.put( "fonttbl",NO_TEXT_DEST);//fonttbl("fonttbl", CommandType.Destination),
         MAP.put("footer" ,NO_TEXT_DEST);//footer("footer", CommandType.Destination),
         MAP.put( "footerf",NO_TEXT_DEST);//footerf("footerf", CommandType.Destination),
         MAP.put("footerl" ,NO_TEXT_DEST);//footerl("footerl", CommandType.Destination),
@@ -249,7 +373,7 @@ class RtfCommand {
         MAP.put( "ftnsep",NO_TEXT_DEST);//ftnsep("ftnsep", CommandType.Destination),
         MAP.put("ftnsepc" ,NO_TEXT_DEST);//ftnsepc("ftnsepc", CommandType.Destination),   
         MAP.put("g" ,NO_TEXT_DEST);//g("g", CommandType.Destination),
-        MAP.put("generator" ,NO_TEXT_DEST);//generator("generator", CommandType.Destination),
+        MAP.put("generator" ,INFO_GENERATOR);//generator("generator", CommandType.Destination),
         MAP.put("gridtbl" ,NO_TEXT_DEST);//gridtbl("gridtbl", CommandType.Destination),
         MAP.put("header" ,NO_TEXT_DEST);//header("header", CommandType.Destination),
         MAP.put( "headerf",NO_TEXT_DEST);//headerf("headerf", CommandType.Destination),
@@ -262,7 +386,7 @@ class RtfCommand {
         MAP.put("hlsrc" ,NO_TEXT_DEST);//hlsrc("hlsrc", CommandType.Destination),
         MAP.put("hsv" ,NO_TEXT_DEST);//hsv("hsv", CommandType.Destination),
         MAP.put("htmltag" ,NO_TEXT_DEST);//htmltag("htmltag", CommandType.Destination),
-        MAP.put("info" ,NO_TEXT_DEST);//info("info", CommandType.Destination),
+        MAP.put("info" ,INFO_GROUP);//info("info", CommandType.Destination),
         MAP.put( "keycode",NO_TEXT_DEST);//keycode("keycode", CommandType.Destination),
         MAP.put("keywords" ,NO_TEXT_DEST);//keywords("keywords", CommandType.Destination),
         MAP.put( "latentstyles",NO_TEXT_DEST);//latentstyles("latentstyles", CommandType.Destination),
@@ -452,13 +576,13 @@ class RtfCommand {
         MAP.put("sp" ,NO_TEXT_DEST);//sp("sp", CommandType.Destination),
         MAP.put( "staticval",NO_TEXT_DEST);//staticval("staticval", CommandType.Destination),
         MAP.put( "stylesheet",NO_TEXT_DEST);//stylesheet("stylesheet", CommandType.Destination),
-        MAP.put("subject" ,NO_TEXT_DEST);//subject("subject", CommandType.Destination),
+        MAP.put("subject" ,INFO_SUBJECT);//subject("subject", CommandType.Destination),
         MAP.put("sv" ,NO_TEXT_DEST);//sv("sv", CommandType.Destination),
         MAP.put("svb" ,NO_TEXT_DEST);//svb("svb", CommandType.Destination),
         MAP.put( "tc",NO_TEXT_DEST);//tc("tc", CommandType.Destination),
         MAP.put("template" ,NO_TEXT_DEST);//template("template", CommandType.Destination),
         MAP.put( "themedata",NO_TEXT_DEST);//themedata("themedata", CommandType.Destination),
-        MAP.put("title" ,NO_TEXT_DEST);//title("title", CommandType.Destination),
+        MAP.put("title" ,INFO_TITLE);//title("title", CommandType.Destination),
         MAP.put("txe" ,NO_TEXT_DEST);//txe("txe", CommandType.Destination),       
         MAP.put("ud", NO_TEXT_DEST);//ud("ud", CommandType.Destination),
         MAP.put("upr" ,NO_TEXT_DEST);//upr("upr", CommandType.Destination),
@@ -474,8 +598,21 @@ class RtfCommand {
         MAP.put("xmlclose" ,NO_TEXT_DEST);//xmlclose("xmlclose", CommandType.Destination),
         MAP.put("xmlname" ,NO_TEXT_DEST);//xmlname("xmlname", CommandType.Destination),
         MAP.put("xmlnstbl" ,NO_TEXT_DEST);//xmlnstbl("xmlnstbl", CommandType.Destination),
-        MAP.put("xmlopen" ,NO_TEXT_DEST);//xmlopen("xmlopen", CommandType.Destination) ;        
+        MAP.put("xmlopen" ,NO_TEXT_DEST);//xmlopen("xmlopen", CommandType.Destination) ;
         
+        int size=1;
+        while (size<4*MAP.size()) size<<=1;
+        TABLE_SIZE=size;
+        TABLE_MASK=size-1;
+        TABLE_KEYS=new char[TABLE_SIZE][];
+        TABLE_CODES=new int[TABLE_SIZE];
+        for (Map.Entry<String,Integer> entry:MAP.entrySet()){
+            char[] key=entry.getKey().toCharArray();
+            int index=hash(key,key.length)&TABLE_MASK;
+            while (TABLE_KEYS[index]!=null) index=(index+1)&TABLE_MASK;
+            TABLE_KEYS[index]=key;
+            TABLE_CODES[index]=entry.getValue();
+        }
     }
 
 }
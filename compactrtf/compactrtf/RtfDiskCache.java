@@ -0,0 +1,543 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class is an optional persistent cache of strip results, for batches stripping
+ * again and again the same documents: a document already seen is not parsed, its result is read from disk.
+ * As RtfStripCache, a source is identified by a 128 bits hash of its content, its length and strip options.
+ *
+ * The cache is a directory with two files:
+ * - a data file where records (key, return code, counters and text in UTF-8) are only appended,
+ * each record ending with a CRC32,
+ * - an index file mapped in memory, an open addressing table giving the data position of each key.
+ * The data file is the reference, the index can always be rebuilt from it. The index is marked clean
+ * only by close, so after a crash it is rebuilt when the cache is opened again: records are checked
+ * by their CRC, and a record partially written at data end is cut.
+ * Results found in index are checked against their record, so a damaged index can only cause a miss.
+ * Compaction rewrites the data file with only the indexed records, in a new file replacing the old one
+ * by an atomic rename.
+ *
+ * The cache is used by a single process at a time (files are locked) but by any count of threads,
+ * stripping is done outside the lock. Disk errors are logged, the result is then stripped.
+ */
+public final class RtfDiskCache implements AutoCloseable {
+
+    private static final String DATA_FILE="strip.data";
+    private static final String INDEX_FILE="strip.index";
+    private static final String TEMP_SUFFIX=".tmp";
+    private static final int DATA_MAGIC=0x52544644; // RTFD
+    private static final int INDEX_MAGIC=0x52544649; // RTFI
+    private static final int RECORD_MAGIC=0x52544652; // RTFR
+    private static final int VERSION=1;
+    private static final int DATA_HEADER=8; // magic, version
+    private static final int KEY_SIZE=28; // magic, key hash, length and flags
+    private static final int RECORD_HEADER=56; // key, return code, counters, text length
+    private static final int RECORD_TRAILER=4; // CRC32
+    private static final long MIN_CAPACITY=1<<12;
+    private static final long AVERAGE_RECORD=512; // to size index when rebuilt
+    // directories of caches opened by this process: a second channel on the data file would lose
+    // the file lock when closed, as process locks are released by closing any channel of the file
+    private static final Set<Path> OPEN_DIRECTORIES=new HashSet<>();
+
+    private final Path directory;
+    private final Path dataPath;
+    private final Path indexPath;
+    private FileChannel data;
+    private FileLock lock;
+    private long dataLength;
+    private long liveLength; // length of indexed records, the rest is freed by compaction
+    private Index index;
+    private final CRC32 crc=new CRC32();
+    private final LongAdder hitCount=new LongAdder();
+    private final LongAdder missCount=new LongAdder();
+
+    /**
+     * open a cache, creating it if directory does not contain one, and checking it
+     * if it was not closed (index rebuilt, partial record cut)
+     * @param directory directory containing cache files, created if needed
+     * @throws IOException if cache cannot be opened or is already in use
+     */
+    public RtfDiskCache(Path directory) throws IOException{
+        Files.createDirectories(directory);
+        this.directory=directory.toRealPath();
+        dataPath=this.directory.resolve(DATA_FILE);
+        indexPath=this.directory.resolve(INDEX_FILE);
+        synchronized (OPEN_DIRECTORIES){
+            if (!OPEN_DIRECTORIES.add(this.directory)) throw new IOException("cache already in use "+dataPath);
+        }
+        try {
+            data=FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                lock=data.tryLock();
+            } catch (OverlappingFileLockException ex){ // already opened by this process
+                lock=null;
+            }
+            if (lock==null) throw new IOException("cache already in use "+dataPath);
+            dataLength=data.size();
+            if (dataLength<DATA_HEADER){ // new file, or crash while creating it
+                data.truncate(0);
+                writeDataHeader(data);
+                dataLength=DATA_HEADER;
+            }
+            else {
+                ByteBuffer header=read(data, 0, DATA_HEADER);
+                if ((header.getInt(0)!=DATA_MAGIC)||(header.getInt(4)!=VERSION)) throw new IOException("not a strip cache file "+dataPath);
+            }
+            index=Index.open(indexPath, dataLength);
+            if (index==null) rebuild();
+            else liveLength=index.liveLength();
+            index.setState(dataLength, liveLength, false);
+        } catch (IOException ex){
+            if (index!=null) index.channel.close();
+            if (data!=null) data.close();
+            data=null;
+            closed();
+            throw ex;
+        }
+    }
+
+    /**
+     * extract text from a source in memory as bytes, result is read from cache if source was already stripped,
+     * else it is stripped and stored
+     * @param source bytes containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @return the result, with null text if not rtf text and returnAnyway false
+     */
+    public StripResult strip(byte[] source, boolean returnAnyway){
+        RtfStripCache.Key key=new RtfStripCache.Key(source, returnAnyway);
+        StripResult result=get(key);
+        if (result!=null){
+            hitCount.increment();
+            return result;
+        }
+        missCount.increment();
+        result=RtfStripper.stripToResult(source, returnAnyway);
+        put(key, result);
+        return result;
+    }
+
+    /**
+     * furnish the count of strips answered from cache
+     * @return hit count
+     */
+    public long getHitCount(){
+        return hitCount.sum();
+    }
+
+    /**
+     * furnish the count of strips not found in cache
+     * @return miss count
+     */
+    public long getMissCount(){
+        return missCount.sum();
+    }
+
+    /**
+     * furnish the count of cached results
+     * @return entry count
+     */
+    public synchronized long size(){
+        return (index==null)? 0: index.count;
+    }
+
+    /**
+     * furnish the data file length
+     * @return data length in bytes
+     */
+    public synchronized long getDataLength(){
+        return dataLength;
+    }
+
+    /**
+     * furnish the length of data file freed by compaction: replaced records, damaged records
+     * @return freed length in bytes
+     */
+    public synchronized long getGarbageLength(){
+        return dataLength-DATA_HEADER-liveLength;
+    }
+
+    /**
+     * rewrite data file with only indexed records, the new file replaces the old one
+     * by an atomic rename, so a crash during compaction leaves one of the two files
+     * @throws IOException if new files cannot be written, the cache then keeps the old files
+     */
+    public synchronized void compact() throws IOException{
+        if (data==null) throw new IOException("cache closed");
+        Path tempData=dataPath.resolveSibling(DATA_FILE+TEMP_SUFFIX);
+        Path tempIndex=indexPath.resolveSibling(INDEX_FILE+TEMP_SUFFIX);
+        FileChannel newData=FileChannel.open(tempData, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Index newIndex=null;
+        FileLock newLock;
+        long newLength=DATA_HEADER;
+        try {
+            newLock=newData.lock();
+            writeDataHeader(newData);
+            newIndex=Index.create(tempIndex, capacityFor(index.count));
+            for (long slot=0;slot<index.capacity;slot++){
+                long offset=index.offset(slot);
+                if (offset==0) continue;
+                ByteBuffer record=readRecord(offset);
+                if (record==null){ // damaged record dropped
+                    warning("compact damaged record at "+offset);
+                    continue;
+                }
+                write(newData, record, newLength);
+                long h1=index.h1(slot);
+                newIndex.set(newIndex.freeSlot(h1), h1, newLength);
+                newIndex.count++;
+                newLength+=record.limit();
+            }
+            newData.force(true);
+            newIndex.setState(newLength, newLength-DATA_HEADER, false);
+            Files.move(tempData, dataPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex){
+            if (newIndex!=null) newIndex.channel.close();
+            newData.close();
+            throw ex;
+        }
+        // new data is in place, old index is not clean and would be rebuilt after a crash
+        data.close();
+        data=newData;
+        lock=newLock;
+        dataLength=newLength;
+        liveLength=newLength-DATA_HEADER;
+        index.channel.close();
+        index=newIndex;
+        Files.move(tempIndex, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * write data and index to disk and mark index clean, so it is used as is by next opening
+     */
+    @Override
+    public synchronized void close(){
+        if (data==null) return;
+        try {
+            data.force(true);
+            index.close(dataLength, liveLength);
+            data.close();
+        } catch (IOException ex){
+            warning("close IOException "+ex.getLocalizedMessage());
+        }
+        data=null;
+        index=null;
+        closed();
+    }
+
+    /*
+    * directory can be opened again by this process
+    */
+    private void closed(){
+        synchronized (OPEN_DIRECTORIES){
+            OPEN_DIRECTORIES.remove(directory);
+        }
+    }
+
+    private synchronized StripResult get(RtfStripCache.Key key){
+        if (data==null) return null;
+        try {
+            long slot=find(key);
+            if (slot<0) return null;
+            ByteBuffer record=readRecord(index.offset(slot));
+            if (record==null){
+                warning("get damaged record at "+index.offset(slot));
+                return null;
+            }
+            int textLength=record.getInt(52);
+            String text=(textLength<0)? null: new String(record.array(), RECORD_HEADER, textLength, StandardCharsets.UTF_8);
+            return new StripResult(text, record.getInt(28), record.getInt(32), record.getLong(36), record.getLong(44), false);
+        } catch (IOException ex){
+            warning("get IOException "+ex.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private synchronized void put(RtfStripCache.Key key, StripResult result){
+        if (data==null) return;
+        byte[] text=(result.getText()==null)? null: result.getText().getBytes(StandardCharsets.UTF_8);
+        int textLength=(text==null)? 0: text.length;
+        ByteBuffer record=ByteBuffer.allocate(RECORD_HEADER+textLength+RECORD_TRAILER);
+        record.putInt(RECORD_MAGIC).putLong(key.h1).putLong(key.h2).putInt(key.length).putInt(key.flags);
+        record.putInt(result.getReturnCode()).putInt(result.getWarningCount());
+        record.putLong(result.getBytesConsumed()).putLong(result.getCharsProduced());
+        record.putInt((text==null)? -1: textLength);
+        if (text!=null) record.put(text);
+        crc.reset();
+        crc.update(record.array(), 4, RECORD_HEADER-4+textLength);
+        record.putInt((int)crc.getValue());
+        record.flip();
+        try {
+            write(data, record, dataLength);
+            long offset=dataLength;
+            dataLength+=record.limit();
+            index(key, offset, record.limit());
+        } catch (IOException ex){
+            warning("put IOException "+ex.getLocalizedMessage());
+        }
+    }
+
+    /*
+    * rebuild index from data file, data is cut at first record not complete or damaged
+    */
+    private void rebuild() throws IOException{
+        index=Index.create(indexPath, capacityFor(dataLength/AVERAGE_RECORD));
+        liveLength=0;
+        long position=DATA_HEADER;
+        while (position<dataLength){
+            ByteBuffer record=readRecord(position);
+            if (record==null) break;
+            index(new RtfStripCache.Key(record.getLong(4), record.getLong(12), record.getInt(20), record.getInt(24)), position, record.limit());
+            position+=record.limit();
+        }
+        if (position<dataLength){
+            warning("rebuild incomplete record at "+position+", data cut from length "+dataLength);
+            data.truncate(position);
+            dataLength=position;
+        }
+    }
+
+    /*
+    * give a key its record position, replacing a previous record of the same key
+    */
+    private void index(RtfStripCache.Key key, long offset, int length) throws IOException{
+        long slot=find(key);
+        if (slot>=0){
+            ByteBuffer old=read(data, index.offset(slot), RECORD_HEADER);
+            liveLength-=RECORD_HEADER+Math.max(old.getInt(52), 0)+RECORD_TRAILER;
+            index.set(slot, key.h1, offset);
+        }
+        else {
+            index.set(-slot-1, key.h1, offset);
+            index.count++;
+            if (4*index.count>3*index.capacity) grow();
+        }
+        liveLength+=length;
+    }
+
+    /*
+    * find the slot of a key, or -(free slot+1) if key is not indexed
+    */
+    private long find(RtfStripCache.Key key) throws IOException{
+        long slot=key.h1&index.mask;
+        while (true){
+            long offset=index.offset(slot);
+            if (offset==0) return -slot-1;
+            if ((index.h1(slot)==key.h1)&&isRecordOf(offset, key)) return slot;
+            slot=(slot+1)&index.mask;
+        }
+    }
+
+    private boolean isRecordOf(long offset, RtfStripCache.Key key) throws IOException{
+        if ((offset<DATA_HEADER)||(offset+KEY_SIZE>dataLength)) return false;
+        ByteBuffer record=read(data, offset, KEY_SIZE);
+        return (record.getInt(0)==RECORD_MAGIC)&&(record.getLong(4)==key.h1)&&(record.getLong(12)==key.h2)
+                &&(record.getInt(20)==key.length)&&(record.getInt(24)==key.flags);
+    }
+
+    /*
+    * double index capacity in a new file replacing the old one
+    */
+    private void grow() throws IOException{
+        Path tempIndex=indexPath.resolveSibling(INDEX_FILE+TEMP_SUFFIX);
+        Index larger=Index.create(tempIndex, 2*index.capacity);
+        for (long slot=0;slot<index.capacity;slot++){
+            long offset=index.offset(slot);
+            if (offset==0) continue;
+            long h1=index.h1(slot);
+            larger.set(larger.freeSlot(h1), h1, offset);
+        }
+        larger.count=index.count;
+        larger.setState(dataLength, liveLength, false);
+        index.channel.close();
+        index=larger;
+        Files.move(tempIndex, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /*
+    * read a complete record checking its CRC, null if not complete or damaged
+    */
+    private ByteBuffer readRecord(long position) throws IOException{
+        if ((position<DATA_HEADER)||(dataLength-position<RECORD_HEADER+RECORD_TRAILER)) return null;
+        ByteBuffer header=read(data, position, RECORD_HEADER);
+        int textLength=header.getInt(52);
+        if ((header.getInt(0)!=RECORD_MAGIC)||(textLength<-1)
+                ||(textLength>dataLength-position-RECORD_HEADER-RECORD_TRAILER)) return null;
+        ByteBuffer record=read(data, position, RECORD_HEADER+Math.max(textLength, 0)+RECORD_TRAILER);
+        crc.reset();
+        crc.update(record.array(), 4, record.limit()-4-RECORD_TRAILER);
+        return (record.getInt(record.limit()-RECORD_TRAILER)==(int)crc.getValue())? record: null;
+    }
+
+    private static long capacityFor(long count){
+        long capacity=MIN_CAPACITY;
+        while (capacity<2*count) capacity<<=1;
+        return capacity;
+    }
+
+    private static void writeDataHeader(FileChannel channel) throws IOException{
+        ByteBuffer header=ByteBuffer.allocate(DATA_HEADER);
+        header.putInt(DATA_MAGIC).putInt(VERSION).flip();
+        write(channel, header, 0);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException{
+        while (buffer.hasRemaining()) position+=channel.write(buffer, position);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException{
+        ByteBuffer buffer=ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer, position+buffer.position())<0) throw new IOException("read beyond file end at "+position);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+    * index file mapped in memory: a header, then slots of 16 bytes (key hash first long, record position),
+    * position 0 for a free slot. Slots are mapped by segments, as a mapping is limited to 2 GB
+    */
+    private static final class Index {
+
+        private static final int HEADER=64; // magic, version, capacity, count, data length, live length, clean flag
+        private static final int SLOT_SIZE=16;
+        private static final int SEGMENT_SHIFT=26; // 1 GB segments
+        private static final long SEGMENT_SLOTS=1L<<SEGMENT_SHIFT;
+
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] segments;
+        private final long capacity;
+        private final long mask;
+        private long count;
+
+        private Index(FileChannel channel, long capacity) throws IOException{
+            this.channel=channel;
+            this.capacity=capacity;
+            mask=capacity-1;
+            // mapping beyond file end extends the file with zeros
+            header=channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            segments=new MappedByteBuffer[(int)((capacity+SEGMENT_SLOTS-1)>>>SEGMENT_SHIFT)];
+            for (int i=0;i<segments.length;i++){
+                long first=(long)i<<SEGMENT_SHIFT;
+                long slots=Math.min(SEGMENT_SLOTS, capacity-first);
+                segments[i]=channel.map(FileChannel.MapMode.READ_WRITE, HEADER+first*SLOT_SIZE, slots*SLOT_SIZE);
+            }
+        }
+
+        private static Index create(Path path, long capacity) throws IOException{
+            FileChannel channel=FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Index index=new Index(channel, capacity);
+            index.header.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putLong(8, capacity);
+            return index;
+        }
+
+        /*
+        * open an index closed cleanly for this data length, else null
+        */
+        private static Index open(Path path, long dataLength) throws IOException{
+            if (!Files.exists(path)) return null;
+            FileChannel channel=FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long capacity=0;
+            long count=0;
+            boolean valid=(channel.size()>=HEADER);
+            if (valid){
+                ByteBuffer buffer=read(channel, 0, HEADER);
+                capacity=buffer.getLong(8);
+                count=buffer.getLong(16);
+                valid=(buffer.getInt(0)==INDEX_MAGIC)&&(buffer.getInt(4)==VERSION)&&(capacity>=MIN_CAPACITY)
+                        &&(Long.bitCount(capacity)==1)&&(channel.size()==HEADER+capacity*SLOT_SIZE)
+                        &&(buffer.getLong(24)==dataLength)&&(buffer.getInt(48)==1);
+            }
+            if (!valid){
+                channel.close();
+                return null;
+            }
+            Index index=new Index(channel, capacity);
+            index.count=count;
+            return index;
+        }
+
+        private long h1(long slot){
+            return segments[(int)(slot>>>SEGMENT_SHIFT)].getLong((int)(slot&(SEGMENT_SLOTS-1))*SLOT_SIZE);
+        }
+
+        private long offset(long slot){
+            return segments[(int)(slot>>>SEGMENT_SHIFT)].getLong((int)(slot&(SEGMENT_SLOTS-1))*SLOT_SIZE+8);
+        }
+
+        private void set(long slot, long h1, long offset){
+            MappedByteBuffer segment=segments[(int)(slot>>>SEGMENT_SHIFT)];
+            int position=(int)(slot&(SEGMENT_SLOTS-1))*SLOT_SIZE;
+            segment.putLong(position, h1);
+            segment.putLong(position+8, offset);
+        }
+
+        private long freeSlot(long h1){
+            long slot=h1&mask;
+            while (offset(slot)!=0) slot=(slot+1)&mask;
+            return slot;
+        }
+
+        private long liveLength(){
+            return header.getLong(32);
+        }
+
+        private void setState(long dataLength, long liveLength, boolean clean){
+            header.putLong(16, count).putLong(24, dataLength).putLong(32, liveLength).putInt(48, clean? 1: 0);
+            header.force();
+        }
+
+        /*
+        * slots are written to disk before the clean flag
+        */
+        private void close(long dataLength, long liveLength) throws IOException{
+            for (MappedByteBuffer segment:segments) segment.force();
+            setState(dataLength, liveLength, true);
+            channel.close();
+        }
+    }
+
+    // delete next line if you do not use RtfLogger
+    private static final RtfLogger LOG=new RtfLogger("RtfDiskCache");
+
+    private static void warning(String msg){
+        // delete next line if you do not use RtfLogger
+        LOG.warning(msg);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class reads a Rtf source by events, the caller drives the parsing by calling next,
+ * as with a StAX reader. So it can stop at any time, or read several sources on the same thread.
+ * Source is parsed by a RtfStripper, token by token, only as far as needed for next event.
+ *
+ * Events are:
+ * - TEXT_RUN, some extracted text, given by getText as a CharSequence valid until next call,
+ * - PARAGRAPH_END, end of paragraph or line (where RtfStripper writes an EOL),
+ * - GROUP_START and GROUP_END, with group level by getGroupLevel. Groups inside a skipped
+ * no text destination are not reported,
+ * - DESTINATION_CHANGE, when extracted text starts or stops, isTextDestination tells which,
+ * - END_DOCUMENT at source end, return code and counters are then given by getResult.
+ *
+ * As RtfStripper, no Exception is thrown for corrupted data, the return code signals it.
+ */
+public final class RtfEventReader implements AutoCloseable {
+
+    /**
+     * event types
+     */
+    public static final int END_DOCUMENT=0;
+    public static final int TEXT_RUN=1;
+    public static final int PARAGRAPH_END=2;
+    public static final int GROUP_START=3;
+    public static final int GROUP_END=4;
+    public static final int DESTINATION_CHANGE=5;
+
+    private static final int MAX_RUN=8192; // text run is given when longer, even if not ended
+    private static final char[] TAB={'\t'};
+
+    private final RtfStripper stripper=new RtfStripper();
+    private boolean isStarted;
+    private boolean isEnded;
+    // events queued by a parsing step, with text position and length or group level or destination
+    private int[] types=new int[16];
+    private int[] starts=new int[16];
+    private int[] values=new int[16];
+    private int head;
+    private int tail;
+    private char[] text=new char[MAX_RUN];
+    private int textLength;
+    private int eventType=-1;
+    private int eventValue;
+    private final TextView view=new TextView();
+
+    /**
+     * create a reader on a Rtf source
+     * @param rdr Reader to read source, closed at end
+     */
+    public RtfEventReader(Reader rdr){
+        stripper.open(rdr);
+    }
+
+    /**
+     * create a reader on a Rtf source read as bytes, as RtfStripper.stripSource
+     * @param ins InputStream to read source, closed at end
+     */
+    public RtfEventReader(InputStream ins){
+        stripper.open(ins);
+    }
+
+    /**
+     * create a reader on a Rtf source in a String
+     * @param source String containing source
+     */
+    public RtfEventReader(String source){
+        stripper.open(source);
+    }
+
+    /**
+     * create a reader on a Rtf source in a byte array
+     * @param source array containing source
+     */
+    public RtfEventReader(byte[] source){
+        stripper.open(source);
+    }
+
+    /**
+     * parse source up to next event
+     * @return event type, END_DOCUMENT at source end or if source is not Rtf
+     */
+    public int next(){
+        if (head==tail){ // all events given, text buffer is free
+            head=0;
+            tail=0;
+            textLength=0;
+        }
+        if (!isStarted){
+            isStarted=true;
+            if (!stripper.begin(new EventHandler())) end();
+        }
+        // a text run is given when a following event ends it
+        while ((!isEnded)&&((head==tail)||((tail-head==1)&&(types[head]==TEXT_RUN)&&(textLength<MAX_RUN)))){
+            if (!stripper.parseNext()){
+                stripper.parseEnd();
+                end();
+            }
+        }
+        if (head==tail) eventType=END_DOCUMENT;
+        else {
+            eventType=types[head];
+            eventValue=values[head];
+            if (eventType==TEXT_RUN) view.set(starts[head], eventValue);
+            head++;
+        }
+        return eventType;
+    }
+
+    /**
+     * furnish current event type
+     * @return event type returned by last next call, -1 before first call
+     */
+    public int getEventType(){
+        return eventType;
+    }
+
+    /**
+     * furnish text of a TEXT_RUN event, the CharSequence is reused by next events,
+     * so it has to be copied (toString) to be kept
+     * @return text of current event, empty if not a TEXT_RUN event
+     */
+    public CharSequence getText(){
+        if (eventType!=TEXT_RUN) view.set(0, 0);
+        return view;
+    }
+
+    /**
+     * furnish the level of a group event
+     * @return group level, 1 for Rtf group, 0 if not a group event
+     */
+    public int getGroupLevel(){
+        return ((eventType==GROUP_START)||(eventType==GROUP_END))? eventValue: 0;
+    }
+
+    /**
+     * indicate new destination of a DESTINATION_CHANGE event
+     * @return true if text is extracted after this event
+     */
+    public boolean isTextDestination(){
+        return (eventType==DESTINATION_CHANGE)&&(eventValue!=0);
+    }
+
+    /**
+     * furnish return code and counters, final at END_DOCUMENT
+     * @return result, without text
+     */
+    public StripResult getResult(){
+        return stripper.getResult();
+    }
+
+    /**
+     * close source, needed only if reading stops before END_DOCUMENT
+     */
+    @Override
+    public void close(){
+        if (!isEnded) end();
+    }
+
+    private void end(){
+        isEnded=true;
+        isStarted=true;
+        stripper.close();
+    }
+
+    private void addEvent(int type, int start, int value){
+        if (tail==types.length){
+            types=Arrays.copyOf(types, 2*tail);
+            starts=Arrays.copyOf(starts, 2*tail);
+            values=Arrays.copyOf(values, 2*tail);
+        }
+        types[tail]=type;
+        starts[tail]=start;
+        values[tail++]=value;
+    }
+
+    private void addText(char[] chars, int offset, int length){
+        if (length==0) return;
+        if (textLength+length>text.length) text=Arrays.copyOf(text, Math.max(2*text.length, textLength+length));
+        System.arraycopy(chars, offset, text, textLength, length);
+        // extend text run ending queue, else start a new one
+        if ((tail>head)&&(types[tail-1]==TEXT_RUN)) values[tail-1]+=length;
+        else addEvent(TEXT_RUN, textLength, length);
+        textLength+=length;
+    }
+
+    /*
+    * handler receiving stripper text and events, text is copied in text buffer
+    */
+    private final class EventHandler implements RtfTextHandler {
+
+        @Override
+        public void text(char[] buffer, int offset, int length){
+            addText(buffer, offset, length);
+        }
+
+        @Override
+        public void paragraph(){
+            addEvent(PARAGRAPH_END, 0, 0);
+        }
+
+        @Override
+        public void tab(){
+            addText(TAB, 0, 1);
+        }
+
+        @Override
+        public void groupStart(int level){
+            addEvent(GROUP_START, 0, level);
+        }
+
+        @Override
+        public void groupEnd(int level){
+            addEvent(GROUP_END, 0, level);
+        }
+
+        @Override
+        public void destinationChange(boolean isText){
+            addEvent(DESTINATION_CHANGE, 0, isText? 1: 0);
+        }
+    }
+
+    /*
+    * view on text of current event
+    */
+    private final class TextView implements CharSequence {
+
+        private int offset;
+        private int length;
+
+        private void set(int offset, int length){
+            this.offset=offset;
+            this.length=length;
+        }
+
+        @Override
+        public int length(){
+            return length;
+        }
+
+        @Override
+        public char charAt(int index){
+            if ((index<0)||(index>=length)) throw new IndexOutOfBoundsException("index "+index+" length "+length);
+            return text[offset+index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end){
+            if ((start<0)||(end>length)||(start>end)) throw new IndexOutOfBoundsException("start "+start+" end "+end+" length "+length);
+            return new String(text, offset+start, end-start);
+        }
+
+        @Override
+        public String toString(){
+            return new String(text, offset, length);
+        }
+    }
+}
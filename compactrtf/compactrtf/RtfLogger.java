@@ -66,6 +66,13 @@ public class RtfLogger {
         this(object.getClass().getName());
     }
     
+    /**
+     * set again the global level for this object, for objects kept and reused after a global level change
+     */
+    public void resetLevel(){
+        curLevel=LEVEL;
+    }
+    
     /**
      * set debug level for this object
      * @param level debug level from java class Level
@@ -74,6 +81,14 @@ public class RtfLogger {
         curLevel=level.intValue();
     }
     
+    /**
+     * indicate if FINE level messages are written, to avoid building messages which would be discarded
+     * @return true if log messages are written
+     */
+    public boolean isLogEnabled(){
+        return LEVEL_FINE>=curLevel;
+    }
+    
     /**
      * write a FINE level message (il level >=FINE)
      * @param msg the message
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class contains the document information read from a Rtf header by RtfStripper.probeSource:
+ * character set and code page, default language, generator, and from the info group
+ * title, subject, author, creation time and word count.
+ * A value not found in header is null, or -1 for numbers.
+ * Objects are immutable, so they can be used by any thread.
+ */
+public final class RtfMetadata {
+
+    private final Charset charset;
+    private final int codePage;
+    private final int defaultLanguage;
+    private final String generator;
+    private final String title;
+    private final String subject;
+    private final String author;
+    private final LocalDateTime creationTime;
+    private final int wordCount;
+
+    RtfMetadata(Charset charset, int codePage, int defaultLanguage, String generator, String title, String subject,
+            String author, LocalDateTime creationTime, int wordCount){
+        this.charset=charset;
+        this.codePage=codePage;
+        this.defaultLanguage=defaultLanguage;
+        this.generator=generator;
+        this.title=title;
+        this.subject=subject;
+        this.author=author;
+        this.creationTime=creationTime;
+        this.wordCount=wordCount;
+    }
+
+    /**
+     * furnish the document character set, from ansi, mac, pc, pca or ansicpg command
+     * @return character set, null if not given or not implemented by Java
+     */
+    public Charset getCharset(){
+        return charset;
+    }
+
+    /**
+     * furnish the code page of ansicpg command
+     * @return code page number, -1 if not given
+     */
+    public int getCodePage(){
+        return codePage;
+    }
+
+    /**
+     * furnish the default language of deflang command
+     * @return Windows language identifier (1033 for English US, 1036 for French...), -1 if not given
+     */
+    public int getDefaultLanguage(){
+        return defaultLanguage;
+    }
+
+    /**
+     * furnish the name of the program which wrote the document
+     * @return generator, without final semicolon, null if not given
+     */
+    public String getGenerator(){
+        return generator;
+    }
+
+    /**
+     * furnish the document title
+     * @return title, null if not given
+     */
+    public String getTitle(){
+        return title;
+    }
+
+    /**
+     * furnish the document subject
+     * @return subject, null if not given
+     */
+    public String getSubject(){
+        return subject;
+    }
+
+    /**
+     * furnish the document author
+     * @return author, null if not given
+     */
+    public String getAuthor(){
+        return author;
+    }
+
+    /**
+     * furnish the document creation time, to the minute
+     * @return creation time, null if not given or not valid
+     */
+    public LocalDateTime getCreationTime(){
+        return creationTime;
+    }
+
+    /**
+     * furnish the word count written by generator
+     * @return word count, -1 if not given
+     */
+    public int getWordCount(){
+        return wordCount;
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class strips a single large Rtf source on several threads, giving the same text as RtfStripper.
+ * A fast scan of the source finds the ends of top level groups (groups directly in Rtf group),
+ * which cut the source in segments. Segments are stripped at the same time on a ForkJoinPool,
+ * and their text is written in order to the Writer.
+ *
+ * A segment has to start with the parser state left by previous segment (destination, charsets, fonts...).
+ * This state is known at the end of first segment, which contains the Rtf header, and the scan
+ * completes it with font and Unicode count changes found at top level. When a segment ends,
+ * the next one is checked: if it was started with another state, or if the scan cut the source
+ * where parser was not at a group end (only possible in corrupted source), it is stripped again.
+ * So text is always the same as a sequential strip, small sources are simply stripped sequentially.
+ */
+public final class RtfParallelStripper {
+
+    private static final long MIN_SEGMENT_SIZE=1024*1024;
+    private static final int SEGMENTS_BY_THREAD=4;
+    private static final int SEGMENTS_AHEAD_BY_THREAD=2; // bounds text kept in memory before writing
+
+    private final ForkJoinPool pool;
+    private int maxDepth=RtfStripper.DEFAULT_MAX_DEPTH;
+    private int returnCode;
+    private int warningCount;
+    private long consumedCount;
+    private long producedCount;
+
+    /**
+     * create a stripper using common ForkJoinPool
+     */
+    public RtfParallelStripper(){
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * create a stripper using a given pool
+     * @param pool pool running segment strips
+     */
+    public RtfParallelStripper(ForkJoinPool pool){
+        this.pool=pool;
+    }
+
+    /**
+     * set maximum depth of nested groups whose state is saved, as RtfStripper.setMaxDepth
+     * @param maxDepth maximum depth
+     */
+    public void setMaxDepth(int maxDepth){
+        this.maxDepth=Math.max(1, maxDepth);
+    }
+
+    /**
+     * parse Rtf source from the remaining bytes of a ByteBuffer to extract text,
+     * buffer position is not changed
+     * @param bytes ByteBuffer containing source, read from its position to its limit
+     * @param wrt Writer to write extracted text
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(ByteBuffer bytes, Writer wrt, boolean copyIfNotRtf){
+        try {
+            return strip(null, bytes, bytes.position(), bytes.limit(), wrt, copyIfNotRtf);
+        } catch (IOException ex) { // not expected without file
+            warning("stripSource IOException "+ex.getLocalizedMessage());
+            return returnCode;
+        }
+    }
+
+    /**
+     * parse Rtf file to extract text, file is mapped in memory by windows by each segment strip
+     * @param path path of the Rtf file
+     * @param wrt Writer to write extracted text
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     * @throws IOException if file cannot be opened
+     */
+    public int stripFile(Path path, Writer wrt, boolean copyIfNotRtf) throws IOException{
+        long size;
+        try (FileChannel channel=FileChannel.open(path, StandardOpenOption.READ)){
+            size=channel.size();
+        }
+        return strip(path, null, 0, size, wrt, copyIfNotRtf);
+    }
+
+    /**
+     * furnish the result of last strip by this object, text is not in result as it was written to the Writer
+     * @return result with return code and counters
+     */
+    public StripResult getResult(){
+        return new StripResult(null, returnCode, warningCount, consumedCount, producedCount, false);
+    }
+
+    private int strip(Path path, ByteBuffer bytes, long start, long end, Writer wrt, boolean copyIfNotRtf) throws IOException{
+        returnCode=RtfStripper.RTF_OK;
+        warningCount=0;
+        consumedCount=0;
+        producedCount=0;
+        int threadCount=pool.getParallelism();
+        long segmentSize=Math.max(MIN_SEGMENT_SIZE, (end-start)/(SEGMENTS_BY_THREAD*threadCount));
+        Scanner scanner=new Scanner(path, bytes, start, end, segmentSize);
+        try {
+            if ((end-start<2*segmentSize)||(!scanner.isRtf())){
+                RtfStripper stripper=new RtfStripper();
+                stripper.setMaxDepth(maxDepth);
+                if (path!=null) stripper.stripFile(path, wrt, copyIfNotRtf);
+                else stripper.stripSource(bytes.duplicate(), wrt, copyIfNotRtf);
+                add(stripper.getResult());
+                return returnCode;
+            }
+            Segments segments=new Segments(path, bytes, start, scanner, wrt);
+            // scan goes on in this thread while found segments are stripped by the pool,
+            // segments stripped with right state are written as soon as they are done
+            while (scanner.next()){
+                segments.submit(SEGMENTS_AHEAD_BY_THREAD*threadCount);
+                while (segments.isHeadDone()) segments.writeHead();
+            }
+            while (segments.hasHead()){
+                segments.submit(SEGMENTS_AHEAD_BY_THREAD*threadCount);
+                segments.writeHead();
+            }
+            return returnCode;
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /*
+    * segments found by scan, stripped in order of their index
+    */
+    private final class Segments {
+        private final Path path;
+        private final ByteBuffer bytes;
+        private final long start;
+        private final Scanner scanner;
+        private final Writer wrt;
+        private ForkJoinTask<Segment>[] tasks;
+        private int submitted;
+        private int index; // next segment to write
+        private RtfStripper.SplitState header; // state at first segment end
+        private RtfStripper.SplitState state; // state at end of written segments
+
+        @SuppressWarnings({"unchecked","rawtypes"})
+        private Segments(Path path, ByteBuffer bytes, long start, Scanner scanner, Writer wrt){
+            this.path=path;
+            this.bytes=bytes;
+            this.start=start;
+            this.scanner=scanner;
+            this.wrt=wrt;
+            tasks=new ForkJoinTask[64];
+        }
+
+        /*
+        * known segments count, last segment is known at scan end
+        */
+        private int count(){
+            return scanner.splitCount+(scanner.isDone()? 1: 0);
+        }
+
+        private long segmentStart(int segment){
+            return (segment==0)? start: scanner.splits[segment-1];
+        }
+
+        private long segmentEnd(int segment){
+            return (segment<scanner.splitCount)? scanner.splits[segment]: scanner.end;
+        }
+
+        private boolean isLast(int segment){
+            return scanner.isDone()&&(segment==scanner.splitCount);
+        }
+
+        /*
+        * submit known segments, ahead of written ones up to a maximum, segments after first one
+        * wait for its end state to guess their start state
+        */
+        private void submit(int maxAhead) throws IOException{
+            if ((header==null)&&(submitted>0)&&(tasks[0].isDone())) header=result(0).endState;
+            while ((submitted<count())&&(submitted-index<maxAhead)&&((submitted==0)||(header!=null))){
+                final int k=submitted++;
+                if (k==tasks.length) tasks=Arrays.copyOf(tasks, 2*k);
+                final RtfStripper.SplitState guess=(k==0)? null: header.withTopLevel(scanner.fonts[k-1], scanner.ucCounts[k-1]);
+                final boolean isLast=isLast(k);
+                tasks[k]=pool.submit(() -> stripSegment(path, bytes, start, segmentStart(k), segmentEnd(k), guess, isLast));
+            }
+        }
+
+        private boolean hasHead(){
+            return index<count();
+        }
+
+        /*
+        * head segment is done and can be written without strip again
+        */
+        private boolean isHeadDone() throws IOException{
+            if ((index>=submitted)||(!tasks[index].isDone())) return false;
+            Segment segment=result(index);
+            return segment.isCut&&((index==0)||segment.startState.isSame(state));
+        }
+
+        /*
+        * write head segment, stripped again if its start state was wrong,
+        * or with next ones if it is not cut at a group end
+        */
+        private void writeHead() throws IOException{
+            if (index>=submitted) submit(1);
+            if (header==null) header=result(0).endState;
+            Segment segment=result(index);
+            if ((index>0)&&(!segment.startState.isSame(state)))
+                segment=stripSegment(path, bytes, start, segmentStart(index), segmentEnd(index), state, isLast(index));
+            int last=index;
+            while ((!segment.isCut)&&(last<count()-1)){
+                if (last<submitted) tasks[last]=null;
+                last++;
+                segment=stripSegment(path, bytes, start, segmentStart(index), segmentEnd(last), state, isLast(last));
+            }
+            if (last<submitted) tasks[last]=null;
+            try {
+                segment.text.writeTo(wrt);
+            } catch (IOException ex) {
+                warning("strip IO Exception "+ex.getLocalizedMessage());
+            }
+            add(segment.result);
+            state=segment.endState;
+            index=last+1;
+            submitted=Math.max(submitted, index);
+        }
+
+        private Segment result(int segment) throws IOException{
+            return join(tasks[segment]);
+        }
+    }
+
+    private Segment stripSegment(Path path, ByteBuffer bytes, long start, long segmentStart, long segmentEnd,
+            RtfStripper.SplitState state, boolean isLast) throws IOException{
+        if (segmentStart==start) state=null; // first segment is stripped from Rtf start
+        RtfStripper stripper=new RtfStripper();
+        stripper.setMaxDepth(maxDepth);
+        CharArrayWriter text=new CharArrayWriter();
+        stripper.stripSegment(path, bytes, segmentStart, segmentEnd, state, isLast, text);
+        boolean isCut=isLast||(stripper.getGroupEnd()==segmentEnd-segmentStart);
+        return new Segment(text, state, stripper.getSplitState(), isCut, stripper.getResult());
+    }
+
+    private static Segment join(ForkJoinTask<Segment> task) throws IOException{
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("strip interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    private void add(StripResult result){
+        if (result.getReturnCode()!=RtfStripper.RTF_OK) returnCode=Math.max(returnCode, result.getReturnCode());
+        warningCount+=result.getWarningCount();
+        consumedCount+=result.getBytesConsumed();
+        producedCount+=result.getCharsProduced();
+    }
+
+    /*
+    * text and result of a segment, with its start and end parser states
+    */
+    private static final class Segment {
+        private final CharArrayWriter text;
+        private final RtfStripper.SplitState startState;
+        private final RtfStripper.SplitState endState;
+        private final boolean isCut; // segment ends with a group end, or is the last one
+        private final StripResult result;
+
+        private Segment(CharArrayWriter text, RtfStripper.SplitState startState, RtfStripper.SplitState endState,
+                boolean isCut, StripResult result){
+            this.text=text;
+            this.startState=startState;
+            this.endState=endState;
+            this.isCut=isCut;
+            this.result=result;
+        }
+    }
+
+    /**
+     * fast scan of source structure, only braces, escaped characters, hexadecimal and binary data
+     * are considered, and at top level font and Unicode count commands.
+     * A split is recorded after each top level group end found beyond segment size from previous split
+     */
+    private static final class Scanner {
+        private static final int CHUNK_SIZE=64*1024;
+        private static final long WINDOW_SIZE=64L*1024*1024;
+        private static final int MAX_COMMAND_LENGTH=30;
+        private static final int MAX_PARAMETER_LENGTH=20;
+
+        private final FileChannel channel;
+        private final long end;
+        private final long segmentSize;
+        private long target; // minimum position of next split
+        private int depth;
+        private boolean isDone;
+        private ByteBuffer window;
+        private long windowStart;
+        private long windowEnd;
+        private final byte[] chunk=new byte[CHUNK_SIZE];
+        private long chunkStart;
+        private int index;
+        private int count;
+        private long nextPosition;
+        private final char[] commandChars=new char[MAX_COMMAND_LENGTH+1];
+        private int font=-1;
+        private int ucCount=-1;
+
+        private long[] splits=new long[64];
+        private int[] fonts=new int[64];
+        private int[] ucCounts=new int[64];
+        private int splitCount;
+
+        private Scanner(Path path, ByteBuffer bytes, long start, long end, long segmentSize) throws IOException{
+            this.end=end;
+            this.segmentSize=segmentSize;
+            target=start+segmentSize;
+            if (path!=null) channel=FileChannel.open(path, StandardOpenOption.READ);
+            else {
+                channel=null;
+                window=bytes.duplicate();
+                windowEnd=end;
+            }
+            nextPosition=start;
+        }
+
+        private boolean isRtf() throws IOException{
+            boolean isRtf=(end-nextPosition>6);
+            long start=nextPosition;
+            for (int i=0;isRtf&&(i<"{\\rtf".length());i++) isRtf=(read()=="{\\rtf".charAt(i));
+            nextPosition=start;
+            count=0;
+            index=0;
+            return isRtf;
+        }
+
+        /*
+        * scan up to next split
+        * @return true if a split is found, false at source end
+        */
+        private boolean next() throws IOException{
+            while (true){
+                // jump to next brace or backslash in chunk
+                while ((index<count)&&(chunk[index]!='{')&&(chunk[index]!='}')&&(chunk[index]!='\\')) index++;
+                int ch=read();
+                if (ch<0){
+                    isDone=true;
+                    close();
+                    return false;
+                }
+                switch (ch){
+                    case '{':
+                        depth++;
+                        break;
+                    case '}':
+                        depth--;
+                        long position=chunkStart+index;
+                        if ((depth==1)&&(position>=target)&&(end-position>=segmentSize/2)){
+                            addSplit(position);
+                            target=position+segmentSize;
+                            return true;
+                        }
+                        break;
+                    case '\\':
+                        readCommand(depth==1);
+                        break;
+                }
+            }
+        }
+
+        private boolean isDone(){
+            return isDone;
+        }
+
+        private void close() throws IOException{
+            if (channel!=null) channel.close();
+        }
+
+        private void addSplit(long position){
+            if (splitCount==splits.length){
+                splits=Arrays.copyOf(splits, 2*splitCount);
+                fonts=Arrays.copyOf(fonts, 2*splitCount);
+                ucCounts=Arrays.copyOf(ucCounts, 2*splitCount);
+            }
+            splits[splitCount]=position;
+            fonts[splitCount]=font;
+            ucCounts[splitCount++]=ucCount;
+        }
+
+        /*
+        * read a command as RtfStripper CommandReader does
+        */
+        private void readCommand(boolean isTopLevel) throws IOException{
+            if ((!isTopLevel)&&jumpCommand()) return;
+            int ch=read();
+            if (ch<0) return;
+            if (ch=='\''){ // hexadecimal digits, may be any character except backslash
+                for (int i=0;i<2;i++){
+                    ch=read();
+                    if (ch<0) return;
+                    if (ch=='\\'){
+                        index--;
+                        return;
+                    }
+                }
+                return;
+            }
+            if (!isLetter(ch)) return;
+            int commandLength=0;
+            commandChars[commandLength++]=(char)ch;
+            while (true){
+                ch=read();
+                if (ch<0) return;
+                if (!isLetter(ch)) break;
+                if (commandLength<=MAX_COMMAND_LENGTH) commandChars[commandLength++]=(char)ch;
+            }
+            boolean negative=(ch=='-');
+            if (negative){
+                ch=read();
+                if (ch<0) return;
+            }
+            long parameter=0; // long to reject parameters beyond int range as RtfStripper
+            int parameterLength=0;
+            while ((ch>='0')&&(ch<='9')){
+                if (parameterLength<=MAX_PARAMETER_LENGTH){
+                    parameterLength++;
+                    if (parameter<=Integer.MAX_VALUE) parameter=10*parameter+(ch-'0');
+                }
+                ch=read();
+                if (ch<0) return;
+            }
+            if (negative) parameter=-parameter;
+            if (ch!=' ') index--;
+            if ((parameterLength>MAX_PARAMETER_LENGTH)||(commandLength>MAX_COMMAND_LENGTH)) return;
+            if (Math.abs(parameter)>Integer.MAX_VALUE) return;
+            // below top level, only binary data matters
+            if ((!isTopLevel)&&((commandLength!=3)||(commandChars[0]!='b')||(commandChars[1]!='i')||(commandChars[2]!='n'))) return;
+            int code=RtfCommand.getCode(commandChars, commandLength);
+            if (code==RtfCommand.UNKNOWN) return;
+            int type=RtfCommand.getCommandType(code);
+            if (type==RtfCommand.BINARY) skip(parameter);
+            else if (isTopLevel){
+                if ((code==RtfCommand.FONT_SELECT)||(code==RtfCommand.FONT_DEFAULT)) font=(int)parameter;
+                else if ((type==RtfCommand.UNICODE_SKIP)&&(parameter>=0)) ucCount=(int)parameter;
+            }
+        }
+
+        /*
+        * jump in chunk a command below top level which is not binary, in a local loop,
+        * false if command has to be read by readCommand
+        */
+        private boolean jumpCommand(){
+            int start=index;
+            int i=start;
+            while ((i<count)&&isLetter(chunk[i]&0xFF)) i++;
+            int length=i-start;
+            if ((length==0)||((length==3)&&(chunk[start]=='b')&&(chunk[start+1]=='i')&&(chunk[start+2]=='n'))) return false;
+            if ((i<count)&&(chunk[i]=='-')) i++;
+            while ((i<count)&&(chunk[i]>='0')&&(chunk[i]<='9')) i++;
+            if (i>=count) return false;
+            if (chunk[i]==' ') i++;
+            index=i;
+            return true;
+        }
+
+        private static boolean isLetter(int ch){
+            if (ch<0x80) return ((ch|0x20)>='a')&&((ch|0x20)<='z');
+            return Character.isLetter(ch);
+        }
+
+        private int read() throws IOException{
+            if ((index>=count)&&(!fill())) return -1;
+            return chunk[index++]&0xFF;
+        }
+
+        private void skip(long length){
+            if (length<=0) return;
+            int inChunk=(int)Math.min(length, count-index);
+            index+=inChunk;
+            if (length>inChunk) nextPosition=Math.min(end, nextPosition+length-inChunk);
+        }
+
+        /*
+        * load next chunk, mapping next file window if needed
+        */
+        private boolean fill() throws IOException{
+            if (nextPosition>=end) return false;
+            if ((channel!=null)&&((window==null)||(nextPosition<windowStart)||(nextPosition>=windowEnd))){
+                windowStart=nextPosition;
+                windowEnd=Math.min(end, windowStart+WINDOW_SIZE);
+                window=channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd-windowStart);
+            }
+            window.position((int)(nextPosition-windowStart));
+            count=(int)Math.min(CHUNK_SIZE, windowEnd-nextPosition);
+            window.get(chunk, 0, count);
+            chunkStart=nextPosition;
+            nextPosition+=count;
+            index=0;
+            return true;
+        }
+    }
+
+    // delete next line if you do not use RtfLogger
+    private final RtfLogger LOG=new RtfLogger(this);
+
+    private void warning(String msg){
+        returnCode=RtfStripper.CORRUPTED_RTF;
+        warningCount++;
+        // delete next line if you do not use RtfLogger
+        LOG.warning(msg);
+    }
+}
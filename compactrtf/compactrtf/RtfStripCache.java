@@ -0,0 +1,310 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class is an optional cache in front of RtfStripper.stripToResult, for services
+ * receiving the same sources again and again (letters from templates, forwarded mails...).
+ * A source is identified by a 128 bits hash of its content (MurmurHash3) and its length,
+ * so the source itself is not kept, only the StripResult, which is immutable and shared.
+ *
+ * Cache size is bounded by the count of cached characters: text length of each result
+ * plus a fixed cost per entry. Entries are spread on stripes, each with its own lock
+ * and least recently used eviction, so threads stripping at the same time rarely wait.
+ * Hit and miss counters allow to check cache efficiency.
+ */
+public final class RtfStripCache {
+
+    private static final int DEFAULT_STRIPES=16;
+    private static final int ENTRY_COST=64; // characters counted for an entry besides its text
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final LongAdder hitCount=new LongAdder();
+    private final LongAdder missCount=new LongAdder();
+
+    /**
+     * create a cache with 16 stripes
+     * @param maxChars maximum count of cached characters
+     */
+    public RtfStripCache(long maxChars){
+        this(maxChars, DEFAULT_STRIPES);
+    }
+
+    /**
+     * create a cache
+     * @param maxChars maximum count of cached characters, shared equally by stripes
+     * @param stripeCount count of stripes, rounded up to a power of 2, about the count of stripping threads
+     */
+    public RtfStripCache(long maxChars, int stripeCount){
+        int count=1;
+        while ((count<stripeCount)&&(count<(1<<16))) count<<=1;
+        stripes=new Stripe[count];
+        for (int i=0;i<count;i++) stripes[i]=new Stripe(maxChars/count);
+        stripeMask=count-1;
+    }
+
+    /**
+     * extract text from a source in memory as bytes, result is taken from cache if source was already stripped
+     * @param source bytes containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @return the result, with null text if not rtf text and returnAnyway false
+     */
+    public StripResult strip(byte[] source, boolean returnAnyway){
+        Key key=new Key(source, returnAnyway);
+        StripResult result=lookup(key);
+        if (result==null){
+            result=RtfStripper.stripToResult(source, returnAnyway);
+            store(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * extract text from a source in a String, result is taken from cache if source was already stripped
+     * @param source String containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @return the result, with null text if not rtf text and returnAnyway false
+     */
+    public StripResult strip(String source, boolean returnAnyway){
+        Key key=new Key(source, returnAnyway);
+        StripResult result=lookup(key);
+        if (result==null){
+            result=RtfStripper.stripToResult(source, returnAnyway);
+            store(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * furnish the count of strips answered from cache
+     * @return hit count
+     */
+    public long getHitCount(){
+        return hitCount.sum();
+    }
+
+    /**
+     * furnish the count of strips not found in cache
+     * @return miss count
+     */
+    public long getMissCount(){
+        return missCount.sum();
+    }
+
+    /**
+     * furnish the count of cached results
+     * @return entry count
+     */
+    public int size(){
+        int size=0;
+        for (Stripe stripe:stripes) size+=stripe.size();
+        return size;
+    }
+
+    /**
+     * furnish the count of cached characters, text and entry costs
+     * @return cached characters
+     */
+    public long getCachedChars(){
+        long chars=0;
+        for (Stripe stripe:stripes) chars+=stripe.chars();
+        return chars;
+    }
+
+    /**
+     * remove all cached results, counters are kept
+     */
+    public void clear(){
+        for (Stripe stripe:stripes) stripe.clear();
+    }
+
+    private StripResult lookup(Key key){
+        StripResult result=stripes[(int)key.h2&stripeMask].get(key);
+        if (result==null) missCount.increment();
+        else hitCount.increment();
+        return result;
+    }
+
+    private void store(Key key, StripResult result){
+        stripes[(int)key.h2&stripeMask].put(key, result);
+    }
+
+    private static long weight(StripResult result){
+        return ENTRY_COST+((result.getText()==null)? 0: result.getText().length());
+    }
+
+    /*
+    * a part of the cache with its lock, entries in access order so eldest is least recently used
+    */
+    private static final class Stripe {
+
+        private final LinkedHashMap<Key,StripResult> map=new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxChars;
+        private long chars;
+
+        private Stripe(long maxChars){
+            this.maxChars=maxChars;
+        }
+
+        private synchronized StripResult get(Key key){
+            return map.get(key);
+        }
+
+        private synchronized void put(Key key, StripResult result){
+            long weight=weight(result);
+            if (weight>maxChars) return; // larger than stripe, not cached
+            StripResult old=map.put(key, result);
+            if (old!=null) chars-=weight(old);
+            chars+=weight;
+            Iterator<StripResult> eldest=map.values().iterator();
+            while (chars>maxChars){
+                chars-=weight(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        private synchronized int size(){
+            return map.size();
+        }
+
+        private synchronized long chars(){
+            return chars;
+        }
+
+        private synchronized void clear(){
+            map.clear();
+            chars=0;
+        }
+    }
+
+    /*
+    * source identity: MurmurHash3 x64 128 bits of content, length and strip options,
+    * bytes and String sources do not share entries as characters are read differently.
+    * Also used as record key by RtfDiskCache
+    */
+    static final class Key {
+
+        private static final long C1=0x87c37b91114253d5L;
+        private static final long C2=0x4cf5ad432745937fL;
+
+        long h1;
+        long h2;
+        final int length;
+        final int flags;
+
+        Key(long h1, long h2, int length, int flags){
+            this.h1=h1;
+            this.h2=h2;
+            this.length=length;
+            this.flags=flags;
+        }
+
+        Key(byte[] source, boolean returnAnyway){
+            length=source.length;
+            flags=(returnAnyway? 1: 0);
+            ByteBuffer bytes=ByteBuffer.wrap(source).order(ByteOrder.LITTLE_ENDIAN);
+            int blockEnd=length&~15;
+            for (int i=0;i<blockEnd;i+=16) mixBlock(bytes.getLong(i), bytes.getLong(i+8));
+            long k1=0;
+            long k2=0;
+            for (int i=length-1;i>=blockEnd;i--){
+                if (i-blockEnd>=8) k2=(k2<<8)|(source[i]&0xFF);
+                else k1=(k1<<8)|(source[i]&0xFF);
+            }
+            finish(k1, k2, length);
+        }
+
+        Key(String source, boolean returnAnyway){
+            length=source.length();
+            flags=(returnAnyway? 1: 0)|2;
+            int blockEnd=length&~7;
+            for (int i=0;i<blockEnd;i+=8) mixBlock(chars(source, i), chars(source, i+4));
+            long k1=0;
+            long k2=0;
+            for (int i=length-1;i>=blockEnd;i--){
+                if (i-blockEnd>=4) k2=(k2<<16)|source.charAt(i);
+                else k1=(k1<<16)|source.charAt(i);
+            }
+            finish(k1, k2, 2L*length);
+        }
+
+        private static long chars(String source, int index){
+            return source.charAt(index)|((long)source.charAt(index+1)<<16)
+                    |((long)source.charAt(index+2)<<32)|((long)source.charAt(index+3)<<48);
+        }
+
+        private void mixBlock(long k1, long k2){
+            h1^=mixK1(k1);
+            h1=Long.rotateLeft(h1, 27)+h2;
+            h1=h1*5+0x52dce729;
+            h2^=mixK2(k2);
+            h2=Long.rotateLeft(h2, 31)+h1;
+            h2=h2*5+0x38495ab5;
+        }
+
+        private void finish(long k1, long k2, long byteLength){
+            h2^=mixK2(k2);
+            h1^=mixK1(k1);
+            h1^=byteLength;
+            h2^=byteLength;
+            h1+=h2;
+            h2+=h1;
+            h1=fmix(h1);
+            h2=fmix(h2);
+            h1+=h2;
+            h2+=h1;
+        }
+
+        private static long mixK1(long k1){
+            return Long.rotateLeft(k1*C1, 31)*C2;
+        }
+
+        private static long mixK2(long k2){
+            return Long.rotateLeft(k2*C2, 33)*C1;
+        }
+
+        private static long fmix(long k){
+            k^=k>>>33;
+            k*=0xff51afd7ed558ccdL;
+            k^=k>>>33;
+            k*=0xc4ceb9fe1a85ec53L;
+            k^=k>>>33;
+            return k;
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if (!(other instanceof Key)) return false;
+            Key key=(Key)other;
+            return (h1==key.h1)&&(h2==key.h2)&&(length==key.length)&&(flags==key.flags);
+        }
+
+        @Override
+        public int hashCode(){
+            return (int)(h1^(h1>>>32));
+        }
+    }
+}
@@ -18,12 +18,20 @@ package compactrtf;
 
 import java.io.CharArrayWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
 
 
 
@@ -32,13 +40,18 @@ import java.util.Deque;
  * @author Jmontch
  * 
  * This class is a part of a compactRtf library to extract text from a Rtf file content.
- * The library contains this class, the RtfCommand class which contains Rtf commands,
- * and RtfLogger class which is only for debug helps.
+ * This class requires RtfCommand which contains Rtf commands, RtfCharsets which gives code page tables,
+ * StripResult, RtfTextHandler and RtfMetadata used by its functions. RtfParallelStripper, RtfEventReader,
+ * RtfStripCache and RtfDiskCache are optional, as RtfLogger which is only for debug helps.
  * 
  * This class parses  Rtf source, interprets commands,and write extracted text.
  * The main function is stripSource, which has as parameters a Reader to read source, 
  * and a Writer to write extracted text character by character. It checks if the first characters 
  * are the first characters of a Rtf file "{\rtf", and if no, the return is code NO_RTF.
+ * As Rtf source is ASCII, stripSource can also read bytes from an InputStream, a byte array
+ * or a ByteBuffer, without charset decoding: bytes are simply widened to char,
+ * only hexadecimal and Unicode commands are translated.
+ * For very large files, stripFile maps the file in memory by windows, heap used does not depend on file size.
  * For file of limited size, already in memory or being read in a single bloc,
  * static function stripLimitedSource with source in String as parameter, 
  * does stripSource calling and returns extracted text. More, static function getLastReturnCode
@@ -59,6 +72,7 @@ public class RtfStripper {
     public static final int RTF_OK=0;
     public static final int CORRUPTED_RTF=1;
     public static final int NO_RTF=2;
+    private static final String RTF_START="{\\rtf";
     
     private static int lastReturnCode;
     
@@ -70,22 +84,151 @@ public class RtfStripper {
      * @return extracted text or null if not rtf text and copyIfNotRtf false
      */
     public static String stripLimitedSource(String source, boolean returnAnyway){    
-        Writer writer=new CharArrayWriter();
-        Reader reader=new StringReader(source);
-        RtfStripper stripper=new RtfStripper();
-        lastReturnCode= stripper.stripSource(reader,writer,returnAnyway) ;
-        if (returnAnyway||(lastReturnCode==RTF_OK)) try {
-            writer.flush();
-            String result=writer.toString();                   
-            return deleteFinalEOL(result);
-        } catch (IOException ex) {
-            stripper.warning("stripLimitedSource IOException "+ex.getLocalizedMessage());
+        RtfStripper stripper=acquire();
+        try {
+            lastReturnCode=stripper.stripSource(source, stripper.textWriter, returnAnyway);
+            return stripper.pooledText(returnAnyway);
+        } finally {
+            stripper.release();
+        }
+    }
+    
+    /**
+     * static function to simply extract text when rtf file content is in memory as bytes
+     * @param source bytes containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @return extracted text or null if not rtf text and copyIfNotRtf false
+     */
+    public static String stripLimitedSource(byte[] source, boolean returnAnyway){    
+        RtfStripper stripper=acquire();
+        try {
+            lastReturnCode=stripper.stripSource(source, stripper.textWriter, returnAnyway);
+            return stripper.pooledText(returnAnyway);
+        } finally {
+            stripper.release();
+        }
+    }
+    
+    /**
+     * static function to extract text from a source in memory, returning text with return code
+     * and counters in an immutable object, so it can be called by several threads at the same time
+     * @param source String containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @return the result, with null text if not rtf text and returnAnyway false
+     */
+    public static StripResult stripToResult(String source, boolean returnAnyway){
+        return stripToResult(source, returnAnyway, Long.MAX_VALUE);
+    }
+    
+    /**
+     * static function to extract the first characters of text, for a preview:
+     * parsing stops as soon as maxChars characters are extracted, rest of source is not read
+     * @param source String containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @param maxChars maximum count of extracted characters
+     * @return the result, truncated if text was longer than maxChars
+     */
+    public static StripResult stripToResult(String source, boolean returnAnyway, long maxChars){
+        RtfStripper stripper=acquire();
+        try {
+            stripper.setMaxChars(maxChars);
+            int returnCode=stripper.stripSource(source, stripper.textWriter, returnAnyway);
+            return stripper.pooledResult(returnCode, returnAnyway);
+        } finally {
+            stripper.release();
+        }
+    }
+    
+    /**
+     * static function to extract text from a source in memory as bytes, returning text with return code
+     * and counters in an immutable object, so it can be called by several threads at the same time
+     * @param source bytes containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @return the result, with null text if not rtf text and returnAnyway false
+     */
+    public static StripResult stripToResult(byte[] source, boolean returnAnyway){
+        return stripToResult(source, returnAnyway, Long.MAX_VALUE);
+    }
+    
+    /**
+     * static function to extract the first characters of text, for a preview:
+     * parsing stops as soon as maxChars characters are extracted, rest of source is not read
+     * @param source bytes containing Rtf source to strip
+     * @param returnAnyway if true return text even if no Rtf or corrupted
+     * @param maxChars maximum count of extracted characters
+     * @return the result, truncated if text was longer than maxChars
+     */
+    public static StripResult stripToResult(byte[] source, boolean returnAnyway, long maxChars){
+        RtfStripper stripper=acquire();
+        try {
+            stripper.setMaxChars(maxChars);
+            int returnCode=stripper.stripSource(source, stripper.textWriter, returnAnyway);
+            return stripper.pooledResult(returnCode, returnAnyway);
+        } finally {
+            stripper.release();
+        }
+    }
+    
+    /*
+    * static functions use a stripper kept by each thread, so steady state stripping
+    * allocates only result, a new stripper is used if thread stripper is already in use
+    * (static function called while stripping, from a Writer for instance)
+    */
+    private static final ThreadLocal<RtfStripper> POOL=new ThreadLocal<RtfStripper>(){
+        @Override
+        protected RtfStripper initialValue(){
+            return new RtfStripper();
+        }
+    };
+    private static final int MAX_POOLED_TEXT=1024*1024;
+    
+    private boolean inUse;
+    private TextWriter textWriter;
+    
+    private static RtfStripper acquire(){
+        RtfStripper stripper=POOL.get();
+        if (stripper.inUse) stripper=new RtfStripper();
+        stripper.inUse=true;
+        stripper.resetLogLevel(); // global level may have changed since stripper creation
+        if (stripper.textWriter==null) stripper.textWriter=new TextWriter();
+        return stripper;
+    }
+    
+    private void release(){
+        // do not keep a too large buffer from a large source
+        if (textWriter.capacity()>MAX_POOLED_TEXT) textWriter=null;
+        else textWriter.reset();
+        maxChars=Long.MAX_VALUE;
+        inUse=false;
+    }
+    
+    private String pooledText(boolean returnAnyway){
+        return (returnAnyway||(returnCode==RTF_OK))? textWriter.text(): null;
+    }
+    
+    private StripResult pooledResult(int returnCode, boolean returnAnyway){
+        return new StripResult(pooledText(returnAnyway), returnCode, warningCount, consumedCount, producedCount, truncated);
+    }
+    
+    /*
+    * Writer giving its content without final EOL in a single String
+    */
+    private static class TextWriter extends CharArrayWriter{
+        
+        private String text(){
+            int length=count;
+            if ((length>0)&&(buf[length-1]=='\n')) length--;
+            return new String(buf,0,length);
+        }
+        
+        private int capacity(){
+            return buf.length;
         }
-        return null;
     }
     
     /**
      * return last stripLimitedSource returnCode
+     * Note that this code is shared by all threads, use stripToResult when several threads strip
      * @return the returnCode
      */
     public static int getLastReturnCode(){
@@ -109,7 +252,7 @@ public class RtfStripper {
      * @return true if start with good sequence
      */
     public static boolean checkRtf(String source){
-        return (source.startsWith("{\\rtf"));
+        return (source.startsWith(RTF_START));
     }
     
  
@@ -122,77 +265,95 @@ public class RtfStripper {
         private static final int MAX_PARAMETER_LENGTH = 20;
         private static final int MAX_COMMAND_LENGTH = 30;
     
-        private final StringBuilder commandText = new StringBuilder();
-        private final StringBuilder parameterText = new StringBuilder();
+        // command and parameter are read in fixed arrays, no allocation per command
+        private final char[] commandChars = new char[MAX_COMMAND_LENGTH+1];
+        private int commandLength;
+        private int parameterLength;
+        private long parameter; // long to detect parameters beyond int range
+        private int phase; // part of command being read, LONG_LETTERS to LONG_DIGITS, for commands cut by fed bytes end
         
         private void start(){
-            commandText.setLength(0);
-            parameterText.setLength(0);            
+            commandLength=0;
+            parameterLength=0;
+            parameter=0;
+            phase=LONG_NONE;
+            // command or hexadecimal byte replacing a Unicode character is counted and ignored
+            boolean isFallback=(ucSkip>0);
+            if (isFallback) ucSkip--;
             int ch = sourceRead();
             if (ch == -1) return;            
             if (!Character.isLetter(ch)){ // one special char command
-                //commandText.append((char) ch);
                 if (ch=='\''){
-                    hexaRead();
+                    hexaRead(isFallback);
                     return;
-                }                
-                handleCommand(String.valueOf((char)ch), parameterText);
+                }
+                commandChars[0]=(char) ch;
+                if (!isFallback) handleCommand(RtfCommand.getCode(commandChars, 1), 0, 0);
                 return;
             }
-            commandText.append((char) ch);// first letter of command
+            commandChars[commandLength++]=(char) ch;// first letter of command
+            phase=LONG_LETTERS;
             while (true){
                 ch = sourceRead();
                 if (ch==-1) return;
                 if  (!Character.isLetter(ch)) break; 
-                if (commandText.length() <= MAX_COMMAND_LENGTH) commandText.append((char) ch);
+                if (commandLength <= MAX_COMMAND_LENGTH) commandChars[commandLength++]=(char) ch;
             }
-            if (ch == '-'){ // skip, no retained command has parameter with -
+            boolean negative=(ch == '-');
+            if (negative){
+                phase=LONG_MINUS;
                 ch = sourceRead();
                 if (ch == -1) return;
             }
             if (Character.isDigit(ch)){
-                parameterText.append((char) ch);
-                while (true){
-                     ch = sourceRead();
-                     if (ch == -1 ) return;
-                     if (!Character.isDigit(ch)) break;
-                     if (parameterText.length() <= MAX_PARAMETER_LENGTH) parameterText.append((char) ch);
-                }              
+                phase=LONG_DIGITS;
+                do {
+                    if (parameterLength <= MAX_PARAMETER_LENGTH){
+                        parameterLength++;
+                        if (parameter<=Integer.MAX_VALUE) parameter=10*parameter+(ch-'0');
+                    }
+                    ch = sourceRead();
+                    if (ch == -1 ) return;
+                } while (Character.isDigit(ch));
             }
-            String commandName=commandText.toString();
-            boolean isUCommand=RtfCommand.isUnicodeCommand(commandName);
-            // if not Unicode command, do not skip character in not space
-            // if Unicode command skip character if not a letter or \ (may be inserted replacement character or ?)
-            boolean doUnread=(((!isUCommand)&&(ch!=' '))||(isUCommand&&Character.isLetter(ch))||(ch=='\\'));
-            if (isUCommand) log("Ucommand ch "+ch+" isLetter "+Boolean.toString(Character.isLetter(ch))+" doUnread "+Boolean.toString(doUnread));
-            if (doUnread) sourceUnread();
-            if ((parameterText.length()>MAX_PARAMETER_LENGTH)||(commandText.length()>MAX_COMMAND_LENGTH))
-                warning("readCommand too long command or parameter: " + commandText.toString()+parameterText.toString());
-            else handleCommand(commandName, parameterText);
+            if (negative) parameter=-parameter;
+            if (ch!=' ') sourceUnread(); // space is command delimiter
+            int code=RtfCommand.getCode(commandChars, commandLength);
+            if ((parameterLength>MAX_PARAMETER_LENGTH)||(commandLength>MAX_COMMAND_LENGTH))
+                warning("readCommand too long command or parameter: " + new String(commandChars,0,commandLength));
+            else if (Math.abs(parameter)>Integer.MAX_VALUE)
+                warning("readCommand too large parameter: " + new String(commandChars,0,commandLength));
+            else if ((!isFallback)||(RtfCommand.getCommandType(code)==RtfCommand.BINARY)) handleCommand(code, (int)parameter, parameterLength);
+        }
+        
+        /**
+         * command name as String, only for messages
+         * @return command name
+         */
+        private String commandName(){
+            return new String(commandChars,0,commandLength);
         }
         
 
-        private void hexaRead(){
-            while (parameterText.length()<2){
+        private void hexaRead(boolean isFallback){
+            int result=0;
+            int digitCount=0;
+            while (digitCount<2){
                 int ch=sourceRead();
-                //log("hexaRead 1 ch "+ch);
                 if (ch<0) return;  //End of  file)
                 if (ch=='\\') {
                     sourceUnread();
                     break;
                 }
-                else parameterText.append((char)ch);
+                int digit=parseHexDigit(ch);
+                if ((digit<0)||(result<0)) result=-1;
+                else result=16*result+digit;
+                digitCount++;
             }
-            //log("hexaREad 2 parameter "+parameterText.toString());
-            if (parameterText.length()>0){
-                int b1=parseHexDigit(parameterText.charAt(0));
-                int result=b1;
-                if (parameterText.length()>1){
-                    int b2=parseHexDigit(parameterText.charAt(1));
-                    result=16*b1+b2;
-                }
-                if (result>=0) processCharacter(transcode((byte)result));//((char)result);
-                else warning("Hex CheckReading bad Hex b1 "+b1+" 16b1+b2 "+result);
+            if (digitCount>0){
+                if (isFallback) return;
+                if (result>=0) processByte((byte)result);
+                else warning("Hex CheckReading bad Hex digits count "+digitCount);
             }
         }
         
@@ -205,27 +366,87 @@ public class RtfStripper {
         }
         
         private char transcode(byte code){
-            if (currentCharset==null) return (char)code;
-            byte[] bytes={code};
-            String s=new String(bytes,0,1,currentCharset);
-            return s.charAt(0);
+            return charsetTable[code&0xFF];
         }
     }
     
     
-    private static final int BUFFER_SIZE=100;
+    private static final int BUFFER_SIZE=4096;
+    private static final int PENDING_SIZE=256;
+    private static final long MAP_WINDOW_SIZE=64L*1024*1024;
+    private static final int MAX_FONT=0x7FFF;
+    // feed states: waiting Rtf start sequence, parsing Rtf, copying or ignoring not Rtf source
+    private static final int FEED_START=0;
+    private static final int FEED_RTF=1;
+    private static final int FEED_COPY=2;
+    private static final int FEED_IGNORE=3;
+    // parts of a too long command cut by fed bytes end, its rest is discarded as it comes
+    private static final int LONG_NONE=0;
+    private static final int LONG_LETTERS=1;
+    private static final int LONG_MINUS=2;
+    private static final int LONG_DIGITS=3;
+    private static final int MAX_TOKEN_LENGTH=64; // longer than any valid command with its parameter
+    static final int DEFAULT_MAX_DEPTH=1000;
     
     private final CommandReader commandReader=new CommandReader();
-    private final Deque<Boolean> destinationStack = new ArrayDeque<>();
+    // group state saved at each level, packed in a long: text flag, Unicode fallback count and font
+    private long[] groupStack=new long[16];
+    private int groupLevel;
+    private int overflowLevel; // groups beyond maxDepth, counted but not saved
+    private int maxDepth=DEFAULT_MAX_DEPTH;
+    private long maxChars=Long.MAX_VALUE; // extracted characters limit, parsing stops beyond
+    private boolean truncated; // text reached maxChars or probe reached body, source is not read further
+    private ProbeHandler probe; // reads header information instead of skipping it, null when stripping
     
     private int stringIndex;
     private boolean isForText;
-    private Charset currentCharset=null;
+    private int documentCharsetId;
+    private int activeCharsetId;
+    private char[] charsetTable=RtfCharsets.getTable(RtfCharsets.NO_CHARSET);
+    private CharsetDecoder decoder;
+    private CharsetDecoder[] decoders=new CharsetDecoder[8]; // by charset id, for multi-byte charsets
+    private int[] fontCharsetIds=new int[16]; // charset id by font number, -1 for document charset
+    private int currentFont;
+    private int definedFont; // font described in font table
+    private int fontTableLevel; // group level of font table, -1 if not in font table
+    private final ByteBuffer pendingBytes=ByteBuffer.allocate(PENDING_SIZE);
+    private final CharBuffer decodedChars=CharBuffer.allocate(PENDING_SIZE);
     private Reader rdr;
+    private InputStream ins;
+    private String textSource;
+    private byte[] arraySource;
+    private int sourceIndex; // next position in text or array source
+    private ByteBuffer bytes;
+    private FileChannel channel;
+    private long mapPosition;
+    private long mapLimit; // file end, or segment end when stripped in parallel
+    private boolean isSegmentStart; // segment starting after a group end, without Rtf start sequence
+    private boolean isSegmentEnd; // segment ending after a group end, groups are still open at end
+    private long groupEnd; // source position after last group end
     private Writer wrt;
-    private final char[] charBuffer=new char[BUFFER_SIZE];
+    private RtfTextHandler handler; // receives text, writes it to wrt when stripping to a Writer
+    private final WriterHandler writerHandler=new WriterHandler();
+    private final char[] singleChar=new char[1];
+    private boolean isEventHandler; // handler receives group and destination events, not the Writer one
+    private char[] charBuffer=new char[BUFFER_SIZE]; // grows only for a fed token longer than buffer
+    private final byte[] byteBuffer=new byte[BUFFER_SIZE];
+    private boolean isByteSource;
     private int charCount;
+    private int skipDepth;
+    private int ucCount; // count of fallback characters after Unicode command
+    private int ucSkip; // count of fallback characters still to skip
     private int returnCode;
+    private int warningCount;
+    private long consumedCount; // bytes or characters read from source
+    private long producedCount; // characters extracted
+    private boolean isFeeding; // source given by feed calls, fed bytes not parsed are kept in buffer
+    private boolean isFeedEnd; // finish called, buffer end is source end
+    private boolean starved; // fed bytes ended inside a token, token is read again after next feed
+    private int feedState;
+    private boolean feedCopy;
+    private long binRemaining; // binary data bytes to skip in next fed bytes
+    private int longToken; // part of a too long command cut by fed bytes end, LONG_NONE if none
+    private boolean logging; // debug messages enabled, messages are built only if true
     
  
     /**
@@ -236,50 +457,871 @@ public class RtfStripper {
      * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
      */
     public int stripSource(Reader rdr,Writer wrt, boolean copyIfNotRtf){        //try {
+        open(rdr);
+        return strip(writerHandler(wrt), copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source in a String to extract text, String is read directly without Reader
+     * @param source String containing source
+     * @param wrt Writer to write extracted text character by character
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(String source,Writer wrt, boolean copyIfNotRtf){
+        open(source);
+        return strip(writerHandler(wrt), copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source read as bytes to extract text
+     * @param ins InputStream to read source, closed at end
+     * @param wrt Writer to write extracted text character by character
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(InputStream ins,Writer wrt, boolean copyIfNotRtf){
+        open(ins);
+        return strip(writerHandler(wrt), copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source from the remaining bytes of a ByteBuffer to extract text
+     * @param bytes ByteBuffer containing source, read from its position to its limit
+     * @param wrt Writer to write extracted text character by character
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(ByteBuffer bytes,Writer wrt, boolean copyIfNotRtf){
+        open(bytes);
+        return strip(writerHandler(wrt), copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source in a byte array to extract text
+     * @param source array containing source
+     * @param wrt Writer to write extracted text character by character
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(byte[] source,Writer wrt, boolean copyIfNotRtf){
+        open(source);
+        return strip(writerHandler(wrt), copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf file to extract text, file is mapped in memory by windows and parsed directly from mapped bytes,
+     * so heap used does not depend on file size
+     * @param path path of the Rtf file
+     * @param wrt Writer to write extracted text character by character
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     * @throws IOException if file cannot be opened
+     */
+    public int stripFile(Path path,Writer wrt, boolean copyIfNotRtf) throws IOException{
+        open(path);
+        return strip(writerHandler(wrt), copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf file to extract text, giving it to a handler, file is mapped in memory by windows
+     * @param path path of the Rtf file
+     * @param handler receives text runs directly from mapped bytes buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     * @throws IOException if file cannot be opened
+     */
+    public int stripFile(Path path,RtfTextHandler handler, boolean copyIfNotRtf) throws IOException{
+        open(path);
+        return strip(handler, copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source to extract text, giving it to a handler
+     * @param rdr Reader to read source
+     * @param handler receives text runs directly from input buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(Reader rdr,RtfTextHandler handler, boolean copyIfNotRtf){
+        open(rdr);
+        return strip(handler, copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source in a String to extract text, giving it to a handler
+     * @param source String containing source
+     * @param handler receives text runs directly from input buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(String source,RtfTextHandler handler, boolean copyIfNotRtf){
+        open(source);
+        return strip(handler, copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source read as bytes to extract text, giving it to a handler
+     * @param ins InputStream to read source, closed at end
+     * @param handler receives text runs directly from input buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(InputStream ins,RtfTextHandler handler, boolean copyIfNotRtf){
+        open(ins);
+        return strip(handler, copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source from the remaining bytes of a ByteBuffer to extract text, giving it to a handler
+     * @param bytes ByteBuffer containing source, read from its position to its limit
+     * @param handler receives text runs directly from input buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(ByteBuffer bytes,RtfTextHandler handler, boolean copyIfNotRtf){
+        open(bytes);
+        return strip(handler, copyIfNotRtf);
+    }
+    
+    /**
+     * parse Rtf source in a byte array to extract text, giving it to a handler
+     * @param source array containing source
+     * @param handler receives text runs directly from input buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int stripSource(byte[] source,RtfTextHandler handler, boolean copyIfNotRtf){
+        open(source);
+        return strip(handler, copyIfNotRtf);
+    }
+    
+    /**
+     * read only the header of a Rtf source in a byte array, up to first body text,
+     * to get document information without stripping
+     * @param source array containing source
+     * @return document information, null if not Rtf source
+     */
+    public RtfMetadata probeSource(byte[] source){
+        open(source);
+        return probe();
+    }
+    
+    /**
+     * read only the header of a Rtf source in a String, up to first body text
+     * @param source String containing source
+     * @return document information, null if not Rtf source
+     */
+    public RtfMetadata probeSource(String source){
+        open(source);
+        return probe();
+    }
+    
+    /**
+     * read only the header of a Rtf source read as bytes, up to first body text,
+     * rest of stream is not read
+     * @param ins InputStream to read source, closed at end
+     * @return document information, null if not Rtf source
+     */
+    public RtfMetadata probeSource(InputStream ins){
+        open(ins);
+        return probe();
+    }
+    
+    /**
+     * read only the header of a Rtf file, up to first body text, file is mapped in memory
+     * so only read pages are loaded
+     * @param path path of the Rtf file
+     * @return document information, null if not Rtf source
+     * @throws IOException if file cannot be opened
+     */
+    public RtfMetadata probeFile(Path path) throws IOException{
+        open(path);
+        return probe();
+    }
+    
+    /*
+    * parse header with a probe handler, which stops parsing at first body text
+    */
+    private RtfMetadata probe(){
+        ProbeHandler probe=new ProbeHandler();
+        this.probe=probe;
+        if (begin(probe)) while (parseNext()){
+        }
+        close();
+        this.probe=null;
+        return (returnCode==NO_RTF)? null: probe.metadata();
+    }
+    
+    /*
+    * Writer functions give text to a handler writing to the Writer
+    */
+    private RtfTextHandler writerHandler(Writer wrt){
+        this.wrt=wrt;
+        return writerHandler;
+    }
+    
+    private class WriterHandler implements RtfTextHandler{
+        
+        @Override
+        public void text(char[] buffer, int offset, int length){
+            try {
+                if (length==1) wrt.write(buffer[offset]);
+                else wrt.write(buffer, offset, length);
+            } catch (IOException ex) {
+                warning("text IO Exception "+ex.getLocalizedMessage());
+            }
+        }
+        
+        @Override
+        public void paragraph(){
+            write('\n');
+        }
+        
+        @Override
+        public void tab(){
+            write('\t');
+        }
+        
+        private void write(char c){
+            try {
+                wrt.write(c);
+            } catch (IOException ex) {
+                warning("write IO Exception "+ex.getLocalizedMessage());
+            }
+        }
+    }
+    
+    /*
+    * handler receiving header text: text of info destinations is kept,
+    * other text (not only white spaces) or paragraph end is body start and stops parsing
+    */
+    private class ProbeHandler implements RtfTextHandler{
+        
+        private static final int MAX_FIELD=1024;
+        
+        private final StringBuilder fieldText=new StringBuilder();
+        private int field; // information destination being read, 0 if none
+        private int fieldLevel=-1;
+        private int timeLevel=-1; // group level of creation time
+        private int codePage=-1;
+        private int language=-1;
+        private int wordCount=-1;
+        private int year;
+        private int month;
+        private int day;
+        private int hour;
+        private int minute;
+        private String generator;
+        private String title;
+        private String subject;
+        private String author;
+        
+        @Override
+        public void text(char[] buffer, int offset, int length){
+            if (field!=0){
+                fieldText.append(buffer, offset, Math.min(length, MAX_FIELD-fieldText.length()));
+                return;
+            }
+            for (int i=offset;i<offset+length;i++) if (!Character.isWhitespace(buffer[i])){
+                truncated=true; // body text, source is not read further
+                return;
+            }
+        }
+        
+        @Override
+        public void paragraph(){
+            if (field==0) truncated=true;
+        }
+        
+        @Override
+        public void tab(){
+        }
+        
+        @Override
+        public void groupEnd(int level){
+            if (level==fieldLevel){
+                String text=fieldText.toString().trim();
+                switch (field){
+                    case RtfCommand.INFO_TITLE:
+                        title=text;
+                        break;
+                    case RtfCommand.INFO_SUBJECT:
+                        subject=text;
+                        break;
+                    case RtfCommand.INFO_AUTHOR:
+                        author=text;
+                        break;
+                    case RtfCommand.INFO_GENERATOR:
+                        generator=text.endsWith(";")? text.substring(0, text.length()-1).trim(): text;
+                        break;
+                }
+                field=0;
+                fieldLevel=-1;
+            }
+            if (level==timeLevel) timeLevel=-1;
+        }
+        
+        /*
+        * information command, destinations are read instead of skipped
+        */
+        private void command(int code, int parameter){
+            switch (code){
+                case RtfCommand.INFO_GROUP:
+                    setForText(false);
+                    break;
+                case RtfCommand.INFO_CREATIM:
+                    setForText(false);
+                    timeLevel=groupLevel+overflowLevel;
+                    break;
+                case RtfCommand.INFO_TITLE:
+                case RtfCommand.INFO_SUBJECT:
+                case RtfCommand.INFO_AUTHOR:
+                case RtfCommand.INFO_GENERATOR:
+                    if (pendingBytes.position()>0) decodePendingBytes(true);
+                    field=code;
+                    fieldLevel=groupLevel+overflowLevel;
+                    fieldText.setLength(0);
+                    setForText(true);
+                    break;
+                case RtfCommand.INFO_WORDS:
+                    wordCount=parameter;
+                    break;
+                case RtfCommand.INFO_LANGUAGE:
+                    language=parameter;
+                    break;
+                default: // time values, only in creation time group
+                    if (groupLevel+overflowLevel==timeLevel) setTime(code, parameter);
+                    break;
+            }
+        }
+        
+        private void setTime(int code, int parameter){
+            switch (code){
+                case RtfCommand.INFO_YEAR:
+                    year=parameter;
+                    break;
+                case RtfCommand.INFO_MONTH:
+                    month=parameter;
+                    break;
+                case RtfCommand.INFO_DAY:
+                    day=parameter;
+                    break;
+                case RtfCommand.INFO_HOUR:
+                    hour=parameter;
+                    break;
+                case RtfCommand.INFO_MINUTE:
+                    minute=parameter;
+                    break;
+            }
+        }
+        
+        private RtfMetadata metadata(){
+            LocalDateTime creationTime=null;
+            if (year>0) try {
+                creationTime=LocalDateTime.of(year, Math.max(month, 1), Math.max(day, 1), hour, minute);
+            } catch (DateTimeException ex){
+                warning("probe bad creation time "+ex.getLocalizedMessage());
+            }
+            return new RtfMetadata(RtfCharsets.getCharset(documentCharsetId), codePage, language, generator,
+                    title, subject, author, creationTime, wordCount);
+        }
+    }
+    
+    /*
+    * reset object and set source, for strip functions and RtfEventReader
+    */
+    void open(Reader rdr){
+        reset();
         this.rdr=rdr;
+    }
+    
+    void open(String source){
+        reset();
+        textSource=source;
+    }
+    
+    void open(InputStream ins){
+        reset();
+        this.ins=ins;
+        isByteSource=true;
+    }
+    
+    void open(ByteBuffer bytes){
+        reset();
+        this.bytes=bytes;
+        isByteSource=true;
+    }
+    
+    void open(byte[] source){
+        reset();
+        arraySource=source;
+        isByteSource=true;
+    }
+    
+    void open(Path path) throws IOException{
+        reset();
+        bytes=ByteBuffer.allocate(0);
+        channel=FileChannel.open(path, StandardOpenOption.READ);
+        mapLimit=channel.size();
+        isByteSource=true;
+    }
+    
+    /**
+     * furnish the result of last strip by this object, text is not in result as it was written to the Writer
+     * @return result with return code and counters
+     */
+    public StripResult getResult(){
+        return new StripResult(null, returnCode, warningCount, consumedCount, producedCount, truncated);
+    }
+    
+    /**
+     * start stripping a source given by chunks with feed, for non-blocking input:
+     * no thread waits for source, each feed parses what it can and returns.
+     * A command, hexadecimal byte or Unicode parameter cut by a chunk end is kept
+     * and parsed again with next chunk, so text is the same as with stripSource.
+     * Source is read as bytes, as stripSource with an InputStream
+     * @param wrt Writer to write extracted text character by character
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     */
+    public void beginFeed(Writer wrt, boolean copyIfNotRtf){
+        beginFeed(writerHandler, copyIfNotRtf);
         this.wrt=wrt;
-        charCount=0;
-        isForText=true;
-        fillBuffer();
-        if ((charCount>6)? checkRtf(new String(charBuffer,0,6)):false) {
-            returnCode=RTF_OK;
-            parse();
+    }
+    
+    /**
+     * start stripping a source given by chunks with feed, giving text to a handler
+     * @param handler receives text runs directly from input buffer, paragraphs and tabulations
+     * @param copyIfNotRtf if true and not Rtf source, copy source as extracted
+     */
+    public void beginFeed(RtfTextHandler handler, boolean copyIfNotRtf){
+        reset();
+        isByteSource=true;
+        isFeeding=true;
+        feedCopy=copyIfNotRtf;
+        stringIndex=0;
+        this.handler=handler;
+        isEventHandler=(handler!=writerHandler);
+    }
+    
+    /**
+     * parse next chunk of source, text is given to Writer or handler before return.
+     * Chunk is entirely consumed, its position is set to its limit
+     * @param chunk next source bytes
+     */
+    public void feed(ByteBuffer chunk){
+        if (!isFeeding) throw new IllegalStateException("feed called without beginFeed or after finish");
+        if (truncated){ // text limit reached, rest of source is ignored
+            chunk.position(chunk.limit());
+            return;
         }
-        else {
-            returnCode=NO_RTF;
-            if (copyIfNotRtf) while (true){
-                int ch=sourceRead();
-                if (ch<0) break;
-                processCharacter((char)ch);
+        while (chunk.hasRemaining()&&(!truncated)){
+            if (binRemaining>0){ // binary data cut by previous chunk end
+                int count=(int)Math.min(binRemaining, chunk.remaining());
+                chunk.position(chunk.position()+count);
+                binRemaining-=count;
+                consumedCount+=count;
+                continue;
             }
+            // keep not parsed characters at buffer start, then append chunk bytes
+            if (stringIndex>0){
+                System.arraycopy(charBuffer, stringIndex, charBuffer, 0, charCount-stringIndex);
+                charCount-=stringIndex;
+                stringIndex=0;
+            }
+            if (charCount==charBuffer.length) charBuffer=Arrays.copyOf(charBuffer, 2*charCount);
+            int count=Math.min(chunk.remaining(), charBuffer.length-charCount);
+            for (int i=0;i<count;i++) charBuffer[charCount+i]=(char)(chunk.get()&0xFF);
+            charCount+=count;
+            consumedCount+=count;
+            feedParse();
+        }
+    }
+    
+    /**
+     * end a fed source, parse its last characters and release Writer or handler
+     * @return returnCode RTF_OK if good Rtf text,else  CORRUPTED_RTF or NO_RTF
+     */
+    public int finish(){
+        if (!isFeeding) throw new IllegalStateException("finish called without beginFeed");
+        isFeedEnd=true;
+        feedParse();
+        if (feedState==FEED_RTF) parseEnd();
+        if (binRemaining>0) warning("sourceSkip binary data beyond source end, missing "+binRemaining);
+        isFeeding=false;
+        close();
+        return returnCode;
+    }
+    
+    /*
+    * parse fed characters in buffer, up to buffer end or to a token cut by buffer end
+    */
+    private void feedParse(){
+        if (feedState==FEED_START){
+            if ((charCount<=6)&&(!isFeedEnd)) return; // Rtf start sequence not complete
+            returnCode=((charCount>6)&&isRtfStart())? RTF_OK: NO_RTF;
+            feedState=(returnCode==RTF_OK)? FEED_RTF: (feedCopy? FEED_COPY: FEED_IGNORE);
+        }
+        switch (feedState){
+            case FEED_RTF:
+                while (parseNext()){
+                }
+                starved=false;
+                break;
+            case FEED_COPY:
+                while ((stringIndex<charCount)&&(!truncated)) processCharacter(charBuffer[stringIndex++]);
+                break;
+            default:
+                stringIndex=charCount;
+                break;
+        }
+    }
+    
+    /*
+    * strip a segment of a source in a file (path not null) or in a ByteBuffer, used by RtfParallelStripper.
+    * First segment (state null) checks Rtf start sequence, next ones start after a top level group end
+    * with the parser state left by previous segment
+    */
+    int stripSegment(Path path, ByteBuffer source, long start, long end, SplitState state, boolean isLast, Writer wrt) throws IOException{
+        reset();
+        if (path!=null){
+            bytes=ByteBuffer.allocate(0);
+            channel=FileChannel.open(path, StandardOpenOption.READ);
+            mapPosition=start;
+            mapLimit=end;
+        }
+        else {
+            bytes=source.duplicate();
+            bytes.limit((int)end);
+            bytes.position((int)start);
         }
+        isByteSource=true;
+        isSegmentEnd=!isLast;
+        if (state!=null){
+            isSegmentStart=true;
+            setSplitState(state);
+        }
+        return strip(writerHandler(wrt), false);
+    }
+    
+    /*
+    * source position after last group end, a segment is well cut if it is its length
+    */
+    long getGroupEnd(){
+        return groupEnd;
+    }
+    
+    /*
+    * parser state at end of last strip
+    */
+    SplitState getSplitState(){
+        int fontCount=fontCharsetIds.length;
+        while ((fontCount>0)&&(fontCharsetIds[fontCount-1]<0)) fontCount--;
+        return new SplitState(Arrays.copyOf(groupStack, groupLevel), overflowLevel, isForText, skipDepth, ucCount,
+                currentFont, definedFont, fontTableLevel, documentCharsetId, activeCharsetId, Arrays.copyOf(fontCharsetIds, fontCount));
+    }
+    
+    private void setSplitState(SplitState state){
+        groupLevel=state.groupStack.length;
+        if (groupLevel>groupStack.length) groupStack=Arrays.copyOf(state.groupStack, groupLevel);
+        else System.arraycopy(state.groupStack, 0, groupStack, 0, groupLevel);
+        overflowLevel=state.overflowLevel;
+        isForText=state.isForText;
+        skipDepth=state.skipDepth;
+        ucCount=state.ucCount;
+        currentFont=state.currentFont;
+        definedFont=state.definedFont;
+        fontTableLevel=state.fontTableLevel;
+        documentCharsetId=state.documentCharsetId;
+        if (state.fontCharsetIds.length>fontCharsetIds.length) fontCharsetIds=new int[state.fontCharsetIds.length];
+        Arrays.fill(fontCharsetIds, -1);
+        System.arraycopy(state.fontCharsetIds, 0, fontCharsetIds, 0, state.fontCharsetIds.length);
+        activeCharsetId=-1;
+        selectCharset(state.activeCharsetId);
+    }
+    
+    /**
+     * parser state after a group end, which is the start state of next segment when a source
+     * is stripped by segments. Unicode fallback skip and multi-byte pending bytes are always
+     * empty after a group end, so they are not kept
+     */
+    static final class SplitState {
+        
+        private final long[] groupStack;
+        private final int overflowLevel;
+        private final boolean isForText;
+        private final int skipDepth;
+        private final int ucCount;
+        private final int currentFont;
+        private final int definedFont;
+        private final int fontTableLevel;
+        private final int documentCharsetId;
+        private final int activeCharsetId;
+        private final int[] fontCharsetIds;
+        
+        private SplitState(long[] groupStack, int overflowLevel, boolean isForText, int skipDepth, int ucCount,
+                int currentFont, int definedFont, int fontTableLevel, int documentCharsetId, int activeCharsetId, int[] fontCharsetIds){
+            this.groupStack=groupStack;
+            this.overflowLevel=overflowLevel;
+            this.isForText=isForText;
+            this.skipDepth=skipDepth;
+            this.ucCount=ucCount;
+            this.currentFont=currentFont;
+            this.definedFont=definedFont;
+            this.fontTableLevel=fontTableLevel;
+            this.documentCharsetId=documentCharsetId;
+            this.activeCharsetId=activeCharsetId;
+            this.fontCharsetIds=fontCharsetIds;
+        }
+        
+        /**
+         * same state with another font and Unicode fallback count, as changed by top level commands
+         * @param font selected font, -1 to keep font
+         * @param ucCount Unicode fallback count, -1 to keep count
+         * @return the new state, with charset of font
+         */
+        SplitState withTopLevel(int font, int ucCount){
+            if (font<0) font=currentFont;
+            if (ucCount<0) ucCount=this.ucCount;
+            int id=((font>=0)&&(font<fontCharsetIds.length))? fontCharsetIds[font]: -1;
+            return new SplitState(groupStack, overflowLevel, isForText, skipDepth, ucCount,
+                    font, definedFont, fontTableLevel, documentCharsetId, (id<0)? documentCharsetId: id, fontCharsetIds);
+        }
+        
+        /**
+         * compare two states
+         * @param other other state
+         * @return true if parsing from both states gives the same result
+         */
+        boolean isSame(SplitState other){
+            return (other!=null)&&Arrays.equals(groupStack, other.groupStack)&&(overflowLevel==other.overflowLevel)
+                    &&(isForText==other.isForText)&&(skipDepth==other.skipDepth)&&(ucCount==other.ucCount)
+                    &&(currentFont==other.currentFont)&&(definedFont==other.definedFont)&&(fontTableLevel==other.fontTableLevel)
+                    &&(documentCharsetId==other.documentCharsetId)&&(activeCharsetId==other.activeCharsetId)
+                    &&Arrays.equals(fontCharsetIds, other.fontCharsetIds);
+        }
+    }
+    
+    /**
+     * reset object state, so that the object can be reused for another source without new allocation.
+     * It is called at start of each strip, source and Writer references are released at end of strip
+     */
+    public void reset(){
+        rdr=null;
+        ins=null;
+        bytes=null;
+        channel=null;
+        textSource=null;
+        arraySource=null;
+        sourceIndex=0;
+        mapPosition=0;
+        mapLimit=0;
+        isSegmentStart=false;
+        isSegmentEnd=false;
+        groupEnd=0;
+        isByteSource=false;
+        isFeeding=false;
+        isFeedEnd=false;
+        starved=false;
+        feedState=FEED_START;
+        binRemaining=0;
+        longToken=LONG_NONE;
+        wrt=null;
+        handler=null;
+        returnCode=RTF_OK;
+        pendingBytes.clear();
+        logging=isLogEnabled();
+        warningCount=0;
+        consumedCount=0;
+        producedCount=0;
+        truncated=false;
+        probe=null;
+        charCount=0;
+        skipDepth=0;
+        isForText=true;
+        documentCharsetId=RtfCharsets.NO_CHARSET;
+        Arrays.fill(fontCharsetIds, -1);
+        currentFont=-1;
+        fontTableLevel=-1;
+        ucCount=1;
+        ucSkip=0;
+        groupLevel=0;
+        overflowLevel=0;
+        activeCharsetId=-1;
+        selectCharset(RtfCharsets.NO_CHARSET);
+    }
+    
+    private int strip(RtfTextHandler handler, boolean copyIfNotRtf){
+        if (begin(handler)) parse();
+        else if (copyIfNotRtf) while (!truncated){
+            int ch=sourceRead();
+            if (ch<0) break;
+            processCharacter((char)ch);
+        }
+        close();
+        return returnCode;
+    }
+    
+    /*
+    * start reading source, false if not Rtf
+    */
+    boolean begin(RtfTextHandler handler){
+        this.handler=handler;
+        isEventHandler=(handler!=writerHandler);
+        fillBuffer();
+        if (isSegmentStart) return true;
+        returnCode=((charCount>6)? isRtfStart():false)? RTF_OK: NO_RTF;
+        return (returnCode==RTF_OK);
+    }
+    
+    /*
+    * close source and release source and Writer references
+    */
+    void close(){
         try {
-            rdr.close();
+            if (rdr!=null) rdr.close();
+            if (ins!=null) ins.close();
+            if (channel!=null) channel.close();
         } catch (IOException ex) {
             warning("stripSource IOException "+ex.getLocalizedMessage());
         }
-            return returnCode;
+        rdr=null;
+        ins=null;
+        bytes=null;
+        channel=null;
+        textSource=null;
+        arraySource=null;
+        wrt=null;
+        handler=null;
+    }
+    
+    /*
+    * same check as checkRtf, done in buffer without creating a String
+    */
+    private boolean isRtfStart(){
+        for (int i=0;i<RTF_START.length();i++) if (charBuffer[i]!=RTF_START.charAt(i)) return false;
+        return true;
     }
     
     
     private void processCharacter(char c){
-        if (isForText) try {
-            wrt.write(c);
-        } catch (IOException ex) {
-            warning("processCharacter IO Exception "+ex.getLocalizedMessage());
+        if (pendingBytes.position()>0) decodePendingBytes(true);
+        if (isForText) {
+            if (limitLength(1)==0) return;
+            producedCount++;
+            switch (c){
+                case '\n':
+                    handler.paragraph();
+                    break;
+                case '\t':
+                    handler.tab();
+                    break;
+                default:
+                    singleChar[0]=c;
+                    handler.text(singleChar, 0, 1);
+                    break;
+            }
         }
        
    }
     
+    /*
+    * translate a byte from hexadecimal command (or not ASCII byte) with current charset,
+    * for multi-byte charset bytes are gathered to be decoded by sequences
+    */
+    private void processByte(byte b){
+        if (decoder==null) processCharacter(commandReader.transcode(b));
+        else if (isForText){
+            pendingBytes.put(b);
+            if (!pendingBytes.hasRemaining()) decodePendingBytes(false);
+        }
+    }
+    
+    /*
+    * decode gathered bytes and write characters, an incomplete sequence at end
+    * is kept for next bytes, except if endOfInput where it is decoded as replacement
+    */
+    private void decodePendingBytes(boolean endOfInput){
+        pendingBytes.flip();
+        while (true){
+            boolean overflow=decoder.decode(pendingBytes, decodedChars, endOfInput).isOverflow();
+            if (endOfInput&&(!overflow)) overflow=decoder.flush(decodedChars).isOverflow();
+            int length=limitLength(decodedChars.position());
+            if (length>0){
+                producedCount+=length;
+                handler.text(decodedChars.array(),0,length);
+            }
+            decodedChars.clear();
+            if (!overflow) break;
+        }
+        pendingBytes.compact();
+        if (endOfInput) decoder.reset();
+    }
+    
+    /*
+    * extend a plain text run starting at start in buffer up to next special character,
+    * and write it in a single call
+    */
+    private void processRun(int start){
+        int end=stringIndex;
+        while ((end<charCount)&&isPlainText(charBuffer[end])) end++;
+        stringIndex=end;
+        if (pendingBytes.position()>0) decodePendingBytes(true);
+        if (isForText) {
+            int length=limitLength(end-start);
+            if (length>0){
+                producedCount+=length;
+                handler.text(charBuffer,start,length);
+            }
+        }
+    }
+    
+    /*
+    * reduce a text length to the characters still allowed by maxChars,
+    * text beyond is cut and parsing stops at next token
+    */
+    private int limitLength(int length){
+        if (producedCount+length<=maxChars) return length;
+        truncated=true;
+        return (int)Math.max(0, maxChars-producedCount);
+    }
+    
+    /*
+    * characters allowed for a surrogate pair, pending bytes are decoded first as they come before
+    */
+    private int limitPair(){
+        if (pendingBytes.position()>0) decodePendingBytes(true);
+        return limitLength(2);
+    }
+    
+    private boolean isPlainText(char c){
+        switch (c){
+            case '{':
+            case '}':
+            case '\\':
+            case '\r':
+            case '\n':
+                return false;
+            default:
+                return (c<0x80)||(!isByteSource);
+        }
+    }
+    
     private boolean fillBuffer(){
+        if (isFeeding){ // all fed characters are in buffer
+            if (isFeedEnd) charCount=-1;
+            else starved=true;
+            return false;
+        }
         if (charCount>0){
             charBuffer[0]=charBuffer[charCount -1];
             stringIndex=1;
         }
         else stringIndex=0;
         try {
-            int count=rdr.read(charBuffer,stringIndex,BUFFER_SIZE-stringIndex);
+            int count=readSource(charBuffer,stringIndex,BUFFER_SIZE-stringIndex);
             charCount=((count>0)? count+stringIndex: -1);
+            if (count>0) consumedCount+=count;
             return (count>0);
         } catch (IOException ex) {
             warning("fillBuffer IOException "+ex.getLocalizedMessage());
@@ -288,6 +1330,98 @@ public class RtfStripper {
     }
     
     
+    /*
+    * read source in buffer, bytes are widened to char without decoding
+    */
+    private int readSource(char[] buffer,int offset,int length) throws IOException{
+        if (rdr!=null) return rdr.read(buffer,offset,length);
+        int count;
+        if (textSource!=null){
+            count=Math.min(length,textSource.length()-sourceIndex);
+            if (count<=0) return -1;
+            textSource.getChars(sourceIndex, sourceIndex+count, buffer, offset);
+            sourceIndex+=count;
+            return count;
+        }
+        if (arraySource!=null){
+            count=Math.min(length,arraySource.length-sourceIndex);
+            if (count<=0) return -1;
+            for (int i=0;i<count;i++) buffer[offset+i]=(char)(arraySource[sourceIndex+i]&0xFF);
+            sourceIndex+=count;
+            return count;
+        }
+        if (ins!=null) count=ins.read(byteBuffer,0,length);
+        else {
+            if ((!bytes.hasRemaining())&&(channel!=null)&&(!mapNextWindow())) return -1;
+            count=Math.min(length,bytes.remaining());
+            if (count==0) return -1;
+            bytes.get(byteBuffer,0,count);
+        }
+        for (int i=0;i<count;i++) buffer[offset+i]=(char)(byteBuffer[i]&0xFF);
+        return count;
+    }
+    
+    /*
+    * map next file window, previous window is released to garbage collector
+    * lookahead across windows is kept in char buffer, as for any buffer refill
+    */
+    private boolean mapNextWindow() throws IOException{
+        if (mapPosition>=mapLimit) return false;
+        long length=Math.min(MAP_WINDOW_SIZE,mapLimit-mapPosition);
+        bytes=channel.map(FileChannel.MapMode.READ_ONLY, mapPosition, length);
+        mapPosition+=length;
+        return true;
+    }
+    
+    /*
+    * skip count characters, first in buffer then directly in source
+    */
+    private void sourceSkip(long count){
+        if (charCount<0) count=0;
+        else {
+            int inBuffer=(int)Math.min(count, charCount-stringIndex);
+            stringIndex+=inBuffer;
+            count-=inBuffer;
+        }
+        if (isFeeding&&(!isFeedEnd)){ // skipped in next fed bytes
+            binRemaining=count;
+            return;
+        }
+        try {
+            while (count>0){
+                long skipped=skipInSource(count);
+                if (skipped<=0) break;
+                count-=skipped;
+                consumedCount+=skipped;
+            }
+        } catch (IOException ex) {
+            warning("sourceSkip IOException "+ex.getLocalizedMessage());
+        }
+        if (count>0) warning("sourceSkip binary data beyond source end, missing "+count);
+    }
+    
+    private long skipInSource(long count) throws IOException{
+        if (rdr!=null) return rdr.skip(count);
+        if ((textSource!=null)||(arraySource!=null)){
+            int length=(textSource!=null)? textSource.length(): arraySource.length;
+            int skipped=(int)Math.min(count, length-sourceIndex);
+            sourceIndex+=skipped;
+            return skipped;
+        }
+        if (ins!=null){
+            long skipped=ins.skip(count);
+            if (skipped>0) return skipped;
+            return (ins.read()<0)? -1: 1; // skip may return 0 before stream end
+        }
+        int inWindow=(int)Math.min(count, bytes.remaining());
+        bytes.position(bytes.position()+inWindow);
+        if ((inWindow==count)||(channel==null)) return inWindow;
+        // beyond mapped window, next window will be mapped after skipped bytes
+        long inFile=Math.min(count-inWindow, mapLimit-mapPosition);
+        mapPosition+=inFile;
+        return inWindow+inFile;
+    }
+    
     private int sourceRead(){
         //if (charCount<0) return -1;
         if ((charCount<0)||((stringIndex>=charCount)&&(!fillBuffer()))) return -1;
@@ -300,93 +1434,382 @@ public class RtfStripper {
         else warning("sourceUnread stringIndex found<=0 stringIndex "+stringIndex+" buffer count "+charCount);
     }
     
+    /**
+     * set maximum depth of nested groups whose state is saved, default 1000.
+     * Beyond, groups are only counted: their state changes apply to enclosing group,
+     * and source is reported as corrupted. So memory used by a source with a great
+     * number of opening braces stays bounded.
+     * @param maxDepth maximum depth
+     */
+    public void setMaxDepth(int maxDepth){
+        this.maxDepth=maxDepth;
+    }
+    
+    /**
+     * set maximum count of extracted characters, for previews: parsing stops as soon as
+     * text reaches this count, rest of source is not read, and result is marked as truncated.
+     * Default is Long.MAX_VALUE, no limit
+     * @param maxChars maximum count of extracted characters
+     */
+    public void setMaxChars(long maxChars){
+        this.maxChars=maxChars;
+    }
+    
+    /**
+     * indicate if text of last strip was cut at maxChars
+     * @return true if source contained more text
+     */
+    public boolean isTruncated(){
+        return truncated;
+    }
+    
     private void saveDestination(){
-        log("saveDestination level "+destinationStack.size()+" isForText "+isForText);
-        destinationStack.push(isForText);
+        if (DEBUG&&logging) logGroup("saveDestination");
+        if (isEventHandler) handler.groupStart(groupLevel+overflowLevel+1);
+        if (groupLevel>=maxDepth){
+            if (overflowLevel++==0) warning("saveDestination too many nested groups, max "+maxDepth);
+            return;
+        }
+        if (groupLevel==groupStack.length) groupStack=Arrays.copyOf(groupStack, Math.min(2*groupLevel, maxDepth));
+        groupStack[groupLevel++]=(isForText? 1L: 0L)|(((long)Math.min(ucCount, 0xFFFF))<<1)|(((long)currentFont)<<32);
     }
     
     private void restoreDestination(){
-        if (!destinationStack.isEmpty()) {
-            isForText=destinationStack.pop();
-            log("restoreDestination level "+destinationStack.size()+" isForText "+Boolean.toString(isForText));
+        if (isEventHandler&&(groupLevel+overflowLevel>0)) handler.groupEnd(groupLevel+overflowLevel);
+        if (overflowLevel>0) overflowLevel--;
+        else if (groupLevel>0) {
+            long state=groupStack[--groupLevel];
+            setForText((state&1)!=0);
+            ucCount=(int)((state>>>1)&0xFFFF);
+            if (groupLevel<fontTableLevel) fontTableLevel=-1;
+            selectFont((int)(state>>32));
+            if (DEBUG&&logging) logGroup("restoreDestination");
         }
         else warning("restoreDestination call wirh empty stack");
     }
    
     private void parse() {
+        while (parseNext()) {
+        }
+        parseEnd();
+    }
+    
+    /*
+    * parse next token, a complete command, a brace, a text run or a skipped group,
+    * so parsing can be driven token by token by RtfEventReader
+    * @return false at source end
+    */
+    boolean parseNext(){
+        if (truncated) return false; // text limit reached, source is not read further
+        if ((longToken!=LONG_NONE)&&(!discardLongToken())) return false;
+        if (skipDepth>0){
+            skipGroup();
+            if (skipDepth>0) return false; // source end in skipped group
+        }
+        int start=stringIndex;
+        int skip=ucSkip;
+        int ch = sourceRead();
+        if (ch == -1) return false; // source end or source bloc end
+        switch (ch){
+            case '{':
+                if (pendingBytes.position()>0) decodePendingBytes(true);
+                ucSkip=0;
+                saveDestination();
+                break;
+             case '}':
+                if (pendingBytes.position()>0) decodePendingBytes(true);
+                ucSkip=0;
+                restoreDestination();
+                groupEnd=consumedCount-charCount+stringIndex;
+                break;
+            case '\\':
+                commandReader.start();
+                if (starved){ // fed bytes end inside command
+                    starvedCommand(start, skip);
+                    return false;
+                }
+                break;
+            case '\r':
+            case '\n':
+                break;
+            //case '\t':  // do default 
+            //    processCommand(RtfCommand.tab, 0, false);
+            //    break;
+            default:
+                // character replacing a Unicode character is counted and ignored
+                if (ucSkip>0) ucSkip--;
+                // not ASCII byte, not expected in Rtf, translated with current charset
+                else if (isByteSource&&(ch>=0x80)) processByte((byte)ch);
+                else processRun(stringIndex-1);
+                break;   
+        }
+        return true;
+    }
+    
+    /*
+    * fed bytes end inside a command: it is read again from its start after next feed,
+    * unless it is already longer than any valid command, then it is too long anyway
+    * and its rest is discarded as it comes, so buffer and parsing work stay bounded
+    */
+    private void starvedCommand(int start, int skip){
+        if (charCount-start<=MAX_TOKEN_LENGTH){
+            stringIndex=start;
+            ucSkip=skip;
+        }
+        else {
+            longToken=commandReader.phase;
+            stringIndex=charCount;
+        }
+    }
+    
+    /*
+    * discard the rest of a too long command as CommandReader would read it: letters,
+    * minus sign, digits and space delimiter, return false if fed bytes end before its end
+    */
+    private boolean discardLongToken(){
+        int ch;
         while (true){
-            int ch = sourceRead();
-            if (ch == -1) break; // source end or source bloc end
-            switch (ch){
+            ch=sourceRead();
+            if (ch==-1) return false;
+            if ((longToken==LONG_LETTERS)&&Character.isLetter(ch)) continue;
+            if ((longToken==LONG_LETTERS)&&(ch=='-')) longToken=LONG_MINUS;
+            else if (Character.isDigit(ch)) longToken=LONG_DIGITS;
+            else break;
+        }
+        if (ch!=' ') sourceUnread(); // space is command delimiter
+        longToken=LONG_NONE;
+        warning("readCommand too long command or parameter: " + commandReader.commandName());
+        return true;
+    }
+    
+    void parseEnd(){
+        if (pendingBytes.position()>0) decodePendingBytes(true);
+        if ((groupLevel>0)&&(!isSegmentEnd)&&(!truncated)) warning("parse groupStack not empty at end size "+groupLevel);
+    }
+    
+
+    
+    /*
+    * skip the rest of a no text destination group, only counting braces:
+    * text and hexadecimal data are not dispatched, escaped characters are jumped,
+    * and command words are read only to detect a text destination
+    * which restores normal parsing, as it would have switched text on
+    */
+    private void skipGroup(){
+        while (skipDepth>0){
+            if ((stringIndex>=charCount)&&(!fillBuffer())) return;
+            // jump in a local loop to the next brace or backslash in buffer
+            int index=stringIndex;
+            char c=charBuffer[index++];
+            while ((c!='{')&&(c!='}')&&(c!='\\')&&(index<charCount)) c=charBuffer[index++];
+            stringIndex=index;
+            switch (c){
                 case '{':
-                    saveDestination();
+                    skipDepth++;
                     break;
-                 case '}':
-                    restoreDestination();
+                case '}':
+                    if (--skipDepth==0) restoreDestination();
+                    groupEnd=consumedCount-charCount+stringIndex;
                     break;
                 case '\\':
-                    commandReader.start();
-                    break;
-                case '\r':
-                case '\n':
+                    int start=stringIndex-1;
+                    int skip=ucSkip;
+                    int ch=sourceRead();
+                    if ((ch!=-1)&&Character.isLetter(ch)){
+                        sourceUnread();
+                        commandReader.start();
+                    }
+                    if (starved){ // fed bytes end inside command
+                        starvedCommand(start, skip);
+                        return;
+                    }
+                    if (ch==-1) return;
                     break;
-                //case '\t':  // do default 
-                //    processCommand(RtfCommand.tab, 0, false);
-                //    break;
-                default:
-                    processCharacter((char)ch);
-                    break;   
-             }
+            }
         }
-        if (!destinationStack.isEmpty()) warning("parse destinationStack not empty at end size "+destinationStack.size());
     }
     
-
+    /*
+    * text destination found while skipping, groups opened since skip start are saved
+    * as parsing would have done, then parsing continues normally
+    */
+    private void setForText(boolean forText){
+        if (isEventHandler&&(forText!=isForText)) handler.destinationChange(forText);
+        isForText=forText;
+    }
+    
+    /*
+    * no text destination, group is skipped up to its end or a text destination
+    */
+    private void skipDestination(){
+        if (pendingBytes.position()>0) decodePendingBytes(true);
+        setForText(false);
+        skipDepth=1;
+    }
+    
+    private void stopSkip(){
+        while (skipDepth>1){
+            saveDestination();
+            skipDepth--;
+        }
+        skipDepth=0;
+    }
     
     /**
     * Determine what to do with the extracted command
     * Note that we silently ignore commands that we don't recognise. 
     */
-    private void handleCommand(String commandName, StringBuilder parameter){
-        RtfCommand command = RtfCommand.getInstance(commandName);
-        if (command != null) switch (command.getCommandType()){
+    private void handleCommand(int code, int parameter, int parameterLength){
+        if (code == RtfCommand.UNKNOWN) return;
+        int type=RtfCommand.getCommandType(code);
+        if (type==RtfCommand.BINARY){ // binary data jumped, also in skipped group
+            if (parameter<0) warning("handleCommand bin negative count "+parameter);
+            else sourceSkip(parameter);
+            return;
+        }
+        if (skipDepth>0){ // skipping no text group, only text destination is considered
+            if (type==RtfCommand.TEXT_DEST){
+                stopSkip();
+                setForText(true);
+            }
+            return;
+        }
+        switch (type){
             case RtfCommand.TEXT_DEST :
-                isForText=true;
+                if (pendingBytes.position()>0) decodePendingBytes(true);
+                setForText(true);
+                break;
+            case RtfCommand.INFO:
+                if (probe!=null) probe.command(code, parameter);
+                // information destination skipped as other no text destinations, values read only by probe
+                else if (code<=RtfCommand.INFO_CREATIM) skipDestination();
                 break;
             case RtfCommand.NO_TEXT_DEST :
-                isForText=false;
+                skipDestination();
                 break;
             case RtfCommand.INSERTION_CHAR :
-                processCharacter(command.getInsertionChar());
+                processCharacter(RtfCommand.getInsertionChar(code));
                 break;
             case RtfCommand.UNICODE_COMMAND:
-                String param=parameter.toString();
-                log("handleCommand u param "+param);
-                if ((param.length()>0)&&(param.length()<=8)){
-                    int code=Integer.parseInt(param);
-                    if (code<0x10000) processCharacter((char)code);
-                    else warning("handleCommand u too big code "+code);                   
-                }
-                else warning("handleCommand u erroneous code size "+param);
+                if ((parameterLength>0)&&(parameterLength<=8)) processUnicode(parameter);
+                else warning("handleCommand u erroneous code size "+parameterLength);
+                ucSkip=ucCount;
+                break;
+            case RtfCommand.UNICODE_SKIP:
+                if (parameter>=0) ucCount=parameter;
                 break;
             case RtfCommand.CHARSET:
-                Charset newCharset=command.getCharset();
-                if (newCharset!=null) currentCharset=newCharset;
-                log("handleCommand commandName "+commandName+" CHARSET name "+command.getCharsetName()+" isNull "+Boolean.toString(newCharset==null));
+                Charset newCharset=RtfCommand.getCharset(RtfCommand.getCharsetName(code));
+                if (newCharset!=null) setDocumentCharset(RtfCharsets.getId(newCharset));
+                if (DEBUG&&logging) logCharset(code, newCharset==null);
                 break;
             case RtfCommand.CHARSET_FROM:
-                newCharset=RtfCommand.getCharsetFrom(parameter.toString());
-                if (newCharset!=null) currentCharset=newCharset;
-                log("handleCommand commandName "+commandName+" CHARSET_FROM number "+parameter.toString()+" isNull "+Boolean.toString(newCharset==null));
+                int id=RtfCharsets.getIdFromCodePage(parameter);
+                if (id>=0) setDocumentCharset(id);
+                if (probe!=null) probe.codePage=parameter;
+                if (DEBUG&&logging) logCharset(code, id<0);
                 break;
+            case RtfCommand.FONT:
+                handleFontCommand(code, parameter);
+                break;
+        }
+    }
+    
+    /*
+    * write Unicode character, negative codes are signed 16 bits values as written by generators,
+    * codes above 16 bits are written as surrogate pair, also given by two commands, high surrogate first.
+    * A pair is not cut by maxChars: text stops before it if only one character is still allowed
+    */
+    private void processUnicode(int code){
+        if (code<0) code+=0x10000;
+        if ((code<0)||(code>Character.MAX_CODE_POINT)) warning("processUnicode bad code "+code);
+        else if (((code>=Character.MIN_SUPPLEMENTARY_CODE_POINT)||Character.isHighSurrogate((char)code))&&isForText&&(limitPair()<2)) return;
+        else if (code<Character.MIN_SUPPLEMENTARY_CODE_POINT) processCharacter((char)code);
+        else {
+            processCharacter(Character.highSurrogate(code));
+            processCharacter(Character.lowSurrogate(code));
         }
     }
     
+    /*
+    * font table gives a charset to each font, font selection switches to its charset
+    */
+    private void handleFontCommand(int code, int parameter){
+        switch (code){
+            case RtfCommand.FONT_TABLE:
+                setForText(false);
+                fontTableLevel=groupLevel;
+                break;
+            case RtfCommand.FONT_SELECT:
+                if (fontTableLevel>=0) definedFont=parameter;
+                else selectFont(parameter);
+                break;
+            case RtfCommand.FONT_CHARSET:
+                if (fontTableLevel>=0){
+                    int codePage=RtfCommand.getCodePageFromFontCharset(parameter);
+                    setFontCharset(definedFont, (codePage<0)? -1: RtfCharsets.getIdFromCodePage(codePage));
+                }
+                break;
+            case RtfCommand.FONT_CODEPAGE:
+                if (fontTableLevel>=0) setFontCharset(definedFont, RtfCharsets.getIdFromCodePage(parameter));
+                break;
+            case RtfCommand.FONT_DEFAULT:
+                selectFont(parameter);
+                break;
+        }
+    }
+    
+    private void setFontCharset(int font, int id){
+        if ((font<0)||(font>MAX_FONT)) return;
+        if (font>=fontCharsetIds.length){
+            int length=fontCharsetIds.length;
+            fontCharsetIds=Arrays.copyOf(fontCharsetIds, Math.max(2*length, font+1));
+            Arrays.fill(fontCharsetIds, length, fontCharsetIds.length, -1);
+        }
+        fontCharsetIds[font]=id;
+    }
+    
+    /*
+    * select a font and its charset, or document charset if font has none
+    */
+    private void selectFont(int font){
+        currentFont=font;
+        int id=((font>=0)&&(font<fontCharsetIds.length))? fontCharsetIds[font]: -1;
+        selectCharset((id<0)? documentCharsetId: id);
+    }
+    
+    private void setDocumentCharset(int id){
+        documentCharsetId=id;
+        selectFont(currentFont);
+    }
+    
+    /*
+    * select charset and its translation table, built once for the process
+    */
+    private void selectCharset(int id){
+        if (id==activeCharsetId) return;
+        if (pendingBytes.position()>0) decodePendingBytes(true);
+        activeCharsetId=id;
+        charsetTable=RtfCharsets.getTable(id);
+        if (!RtfCharsets.isMultiByte(id)) decoder=null;
+        else {
+            if (id>=decoders.length) decoders=Arrays.copyOf(decoders, Math.max(2*decoders.length, id+1));
+            if (decoders[id]==null) decoders[id]=RtfCharsets.getCharset(id).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoder=decoders[id];
+        }
+    }
+    
+    // set to false to remove debug messages code at compile time
+    private static final boolean DEBUG=true;
+    
     // delete next line if you do not use RtfLogger
     private final RtfLogger LOG=new RtfLogger(this);
     
     private void warning(String msg){
         returnCode=CORRUPTED_RTF;
+        warningCount++;
         // delete next line if you do not use RtfLogger
         LOG.warning(msg);
     }
@@ -396,4 +1819,25 @@ public class RtfStripper {
         LOG.log(msg);
     }
     
+    private void resetLogLevel(){
+        // delete next line if you do not use RtfLogger
+        LOG.resetLevel();
+    }
+    
+    /*
+    * messages are built out of parsing functions, which stay small enough to be inlined
+    */
+    private void logGroup(String function){
+        log(function+" level "+groupLevel+" isForText "+Boolean.toString(isForText));
+    }
+    
+    private void logCharset(int code, boolean isNull){
+        log("handleCommand commandName "+commandReader.commandName()+" charset "+RtfCharsets.getCharset(activeCharsetId)+" code "+code+" isNull "+Boolean.toString(isNull));
+    }
+    
+    private boolean isLogEnabled(){
+        // replace next line by return false if you do not use RtfLogger
+        return LOG.isLogEnabled();
+    }
+    
 }
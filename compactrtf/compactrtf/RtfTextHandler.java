@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This interface receives extracted text from RtfStripper, as an alternative to a Writer.
+ * Text runs are given directly from the stripper input buffer, without copy:
+ * the array is reused by the stripper, so text has to be used or copied during the call.
+ * Paragraph and line ends, written as EOL to a Writer, call paragraph, tab commands call tab.
+ * Group and destination functions have an empty default implementation.
+ * Group functions are called for each group parsed, a no text destination group included,
+ * but not for groups inside a skipped no text destination, which are jumped without parsing.
+ */
+public interface RtfTextHandler {
+
+    /**
+     * receive extracted text
+     * @param buffer array containing text, only valid during the call
+     * @param offset text start in buffer
+     * @param length text length
+     */
+    void text(char[] buffer, int offset, int length);
+
+    /**
+     * receive a paragraph or line end
+     */
+    void paragraph();
+
+    /**
+     * receive a tabulation
+     */
+    void tab();
+
+    /**
+     * receive a group start, not called for groups inside a skipped no text destination
+     * @param level level of the group, 1 for Rtf group
+     */
+    default void groupStart(int level){
+    }
+
+    /**
+     * receive a group end, not called for groups inside a skipped no text destination
+     * @param level level of the group, 1 for Rtf group
+     */
+    default void groupEnd(int level){
+    }
+
+    /**
+     * receive a destination change, text is extracted only in text destinations
+     * @param isText true if text is extracted after this call
+     */
+    default void destinationChange(boolean isText){
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 jmontch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package compactrtf;
+
+/**
+ *
+ * @author Jmontch
+ *
+ * This class contains the result of a strip: extracted text, return code and counters.
+ * Objects are immutable, so they can be used by any thread,
+ * unlike static RtfStripper.getLastReturnCode which is shared by all threads.
+ */
+public final class StripResult {
+
+    private final String text;
+    private final int returnCode;
+    private final int warningCount;
+    private final long consumedCount;
+    private final long producedCount;
+    private final boolean truncated;
+
+    StripResult(String text, int returnCode, int warningCount, long consumedCount, long producedCount, boolean truncated){
+        this.text=text;
+        this.returnCode=returnCode;
+        this.warningCount=warningCount;
+        this.consumedCount=consumedCount;
+        this.producedCount=producedCount;
+        this.truncated=truncated;
+    }
+
+    /**
+     * furnish extracted text
+     * @return extracted text, null if not returned (not Rtf or corrupted and not returnAnyway,
+     * or text written to a Writer)
+     */
+    public String getText(){
+        return text;
+    }
+
+    /**
+     * furnish the return code
+     * @return RtfStripper.RTF_OK, CORRUPTED_RTF or NO_RTF
+     */
+    public int getReturnCode(){
+        return returnCode;
+    }
+
+    /**
+     * furnish the count of warnings emitted while stripping the source
+     * @return count of warnings emitted during the strip, whatever the return code
+     */
+    public int getWarningCount(){
+        return warningCount;
+    }
+
+    /**
+     * furnish the count of bytes read from source (characters for a Reader source)
+     * @return consumed count
+     */
+    public long getBytesConsumed(){
+        return consumedCount;
+    }
+
+    /**
+     * furnish the count of extracted characters
+     * @return produced count
+     */
+    public long getCharsProduced(){
+        return producedCount;
+    }
+
+    /**
+     * indicate if text was cut at the characters limit, source was then not read to its end
+     * @return true if source contained more text
+     */
+    public boolean isTruncated(){
+        return truncated;
+    }
+}